@@ -26,6 +26,9 @@ import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
 import com.rigiresearch.gradebuddy.io.AutomatedMarking;
 import com.rigiresearch.gradebuddy.io.FileSubmissionProvider;
+import com.rigiresearch.gradebuddy.io.SearchIndex;
+import com.rigiresearch.gradebuddy.io.SimilarityDetector;
+import com.rigiresearch.gradebuddy.io.Workspace;
 import com.rigiresearch.gradebuddy.model.CsvReport;
 import com.rigiresearch.gradebuddy.model.Submission;
 import com.rigiresearch.gradebuddy.ui.MainWindow;
@@ -117,15 +120,107 @@ public class Application implements Runnable {
 
     @Parameter(
         names = {"--thread-pool", "-t"},
-        description = "The thread-pool size to use in marking the submissions",
+        description = "The thread-pool size to use in marking the submissions, "
+                + "or 'auto' to adjust it based on the measured throughput",
         order = 9
     )
-    private int threads = 1;
+    private String threads = "1";
+
+    @Parameter(
+        names = {"--workspace", "-w"},
+        description = "Run the marking scripts on a scratch clone of each "
+                + "submission (NONE, COPY or LINK)",
+        order = 10
+    )
+    private Workspace.Mode workspace = Workspace.Mode.NONE;
+
+    @Parameter(
+        names = {"--speculate", "-sp"},
+        description = "Run a backup copy of lagging submission parts once "
+                + "there is nothing else to mark",
+        order = 11
+    )
+    private boolean speculate = false;
+
+    @Parameter(
+        names = {"--retry-threads", "-rt"},
+        description = "The thread-pool size to re-mark timed out submission "
+                + "parts after the main run (0 disables the retry phase)",
+        order = 12
+    )
+    private int retryThreads = 0;
+
+    @Parameter(
+        names = {"--retry-timeout", "-rto"},
+        description = "The timeout for re-marking timed out submission parts "
+                + "(in milliseconds; 0 means the same as --timeout)",
+        order = 13
+    )
+    private long retryTimeout = 0;
+
+    @Parameter(
+        names = {"--estimate", "-es"},
+        description = "Mark a random sample of this many submissions and "
+                + "print the projected duration of the whole run, without "
+                + "running it",
+        order = 14
+    )
+    private int estimate = 0;
+
+    @Parameter(
+        names = {"--pin-cpus", "-pc"},
+        description = "Pin each concurrent marking task to its own set of "
+                + "cores (requires taskset and a fixed --thread-pool size)",
+        order = 15
+    )
+    private boolean pin = false;
+
+    @Parameter(
+        names = {"--reserve-cores", "-rc"},
+        description = "The number of cores to reserve for the application "
+                + "itself when using --pin-cpus",
+        order = 16
+    )
+    private int reservedCores = 0;
+
+    @Parameter(
+        names = {"--search", "-q"},
+        description = "Print the id of the submissions whose output, "
+                + "feedback or source contains all the given words and "
+                + "\"quoted phrases\", instead of the CSV report",
+        order = 17
+    )
+    private String search;
+
+    @Parameter(
+        names = {"--similarity", "-si"},
+        description = "Find the submissions with similar source code, "
+                + "comparing the files whose name matches this regular "
+                + "expression (e.g., '.*\\.java')",
+        order = 18
+    )
+    private String similarity;
+
+    @Parameter(
+        names = {"--similarity-threshold", "-st"},
+        description = "The similarity (between 0 and 1) above which two "
+                + "submissions are reported when using --similarity",
+        order = 19
+    )
+    private double similarityThreshold = 0.8;
+
+    @Parameter(
+        names = {"--report-usage", "-ru"},
+        description = "Include the resource usage of each submission part "
+                + "in the CSV report",
+        order = 20
+    )
+    private boolean reportUsage = false;
 
     @Parameter(
         names = {"--help", "-h"},
         description = "Shows this message",
-        order = 10
+        order = 21
     )
     private boolean help = false;
 
@@ -147,6 +242,17 @@ public class Application implements Runnable {
             } else if (!app.parameters.isEmpty()) {
                 System.err.printf("Unknown parameter(s) %s\n", app.parameters);
                 System.exit(1);
+            } else if (!app.threads.matches("auto|[1-9][0-9]*")) {
+                System.err.printf(
+                    "Invalid thread-pool size '%s'\n",
+                    app.threads
+                );
+                System.exit(1);
+            } else if (app.pin && app.threads.equals("auto")) {
+                System.err.println(
+                    "--pin-cpus requires a fixed --thread-pool size"
+                );
+                System.exit(1);
             } else if (app.backup == null && (
                 app.directory == null
                 || app.namingScript == null
@@ -199,11 +305,19 @@ public class Application implements Runnable {
             if (this.backup != null) {
                 marker = this.loadBackup();
             } else {
+                final SimilarityDetector detector = this.similarity == null ?
+                    null : new SimilarityDetector(
+                        this.similarity,
+                        this.similarityThreshold
+                    );
                 List<Submission> submissions = new FileSubmissionProvider(
                     new File(this.directory),
                     this.exclusionRegexp,
                     new File(this.namingScript)
-                ).submissions();
+                ).similarity(detector)
+                 .submissions();
+                if (detector != null)
+                    this.similarity(detector, submissions.size());
                 marker = new AutomatedMarking(
                     submissions,
                     this.markingScripts.stream()
@@ -211,17 +325,53 @@ public class Application implements Runnable {
                         .collect(Collectors.toList()),
                     this.timeout,
                     TimeUnit.MILLISECONDS
-                );
-                marker.mark(this.threads);
+                ).workspaces(this.workspace)
+                 .speculative(this.speculate)
+                 .retryThreads(this.retryThreads)
+                 .retryTimeout(this.retryTimeout)
+                 .pinned(this.pin)
+                 .reservedCores(this.reservedCores);
+                if (this.estimate > 0) {
+                    final int threads = this.threads.equals("auto") ?
+                        Runtime.getRuntime().availableProcessors()
+                        : Integer.parseInt(this.threads);
+                    System.out.print(
+                        marker.estimate(this.estimate, threads)
+                            .projection(submissions.size(), threads)
+                    );
+                    return;
+                }
+                final int threads = this.threads.equals("auto") ?
+                    AutomatedMarking.AUTOMATIC
+                    : Integer.parseInt(this.threads);
+                if (this.ui) {
+                    // Show the submissions right away and fill them in
+                    marker.prepare();
+                    final MainWindow window = this.openWindow(marker);
+                    marker.listener(window::resultsChanged);
+                    window.markingRunning(true);
+                    try {
+                        marker.mark(threads);
+                    } catch (Exception e) {
+                        // Keep the window open with the results so far
+                        e.printStackTrace();
+                        window.markingFailed(e);
+                    } finally {
+                        window.markingRunning(false);
+                    }
+                    return;
+                }
+                marker.mark(threads);
             }
             if (this.ui) {
-                final MainWindow window = new MainWindow(marker);
-                if (this.onSelectedScript != null)
-                    window.selectionScript(new File(this.onSelectedScript));
-                window.configure();
+                this.openWindow(marker);
+            } else if (this.search != null) {
+                this.search(marker);
             } else {
                 System.out.println(
-                    new CsvReport(marker.submissions()).report(true)
+                    new CsvReport(marker.submissions())
+                        .usage(this.reportUsage)
+                        .report(true)
                 );
             }
         } catch (Exception e) {
@@ -230,6 +380,60 @@ public class Application implements Runnable {
         }
     }
 
+    /**
+     * Prints the id of the submissions matching the search query.
+     * @param marker The marking object
+     */
+    private void search(final AutomatedMarking marker) {
+        final SearchIndex index = marker.index();
+        final long start = System.nanoTime();
+        final List<Submission> matches = index.search(this.search);
+        final long elapsed = System.nanoTime() - start;
+        for (Submission submission : matches)
+            System.out.printf(
+                "%s\t%s\n",
+                submission.studentId(),
+                submission.directory()
+            );
+        System.err.printf(
+            "%d of %d submission(s) match (%.2f ms)\n",
+            matches.size(),
+            marker.submissions().size(),
+            elapsed / 1e6
+        );
+    }
+
+    /**
+     * Prints the similar pairs of submissions, most similar first.
+     * @param detector The similarity detector
+     * @param submissions The number of submissions
+     */
+    private void similarity(final SimilarityDetector detector,
+        final int submissions) {
+        System.err.printf(
+            "%d similar pair(s) of %d submission(s) (%d pair(s) compared):\n%s",
+            detector.pairs().size(),
+            submissions,
+            detector.candidates(),
+            detector.report()
+        );
+    }
+
+    /**
+     * Opens the graphical user interface.
+     * @param marker The marking object
+     * @return The main window
+     * @throws IOException If the window cannot be configured
+     */
+    private MainWindow openWindow(final AutomatedMarking marker)
+        throws IOException {
+        final MainWindow window = new MainWindow(marker);
+        if (this.onSelectedScript != null)
+            window.selectionScript(new File(this.onSelectedScript));
+        window.configure();
+        return window;
+    }
+
     /**
      * Loads a backup file.
      * @return a marking object.
@@ -0,0 +1,195 @@
+/**
+ * Copyright 2017 University of Victoria
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package com.rigiresearch.gradebuddy.io;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adjusts the thread-pool size of a {@link Scheduler} while marking, by
+ * hill-climbing on the number of tasks completed per second without timing
+ * out. The pool shrinks whenever the timeout rate or the system load grow
+ * too high.
+ * @author Miguel Jimenez (miguel@uvic.ca)
+ * @date 2017-11-04
+ * @version $Id$
+ * @since 0.0.1
+ */
+public final class AdaptiveConcurrency {
+
+    /**
+     * Time between adjustments (in milliseconds).
+     */
+    private static final long PERIOD = 5000L;
+
+    /**
+     * Timeout rate above which the pool is considered saturated.
+     */
+    private static final double MAX_TIMEOUT_RATE = 0.05;
+
+    /**
+     * Load average per core above which the pool is not grown.
+     */
+    private static final double MAX_LOAD = 1.5;
+
+    /**
+     * Relative throughput change considered noise.
+     */
+    private static final double TOLERANCE = 0.05;
+
+    /**
+     * The number of available cores.
+     */
+    private static final int CORES =
+        Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The scheduler to adjust.
+     */
+    private final Scheduler scheduler;
+
+    /**
+     * Tasks completed so far.
+     */
+    private final AtomicLong completed = new AtomicLong();
+
+    /**
+     * Tasks timed out so far.
+     */
+    private final AtomicLong timeouts = new AtomicLong();
+
+    /**
+     * Periodically runs the adjustment.
+     */
+    private ScheduledExecutorService timer;
+
+    /**
+     * The direction of the last adjustment (+1 or -1).
+     */
+    private int direction = 1;
+
+    /**
+     * Completed tasks at the last adjustment.
+     */
+    private long lastCompleted;
+
+    /**
+     * Timed out tasks at the last adjustment.
+     */
+    private long lastTimeouts;
+
+    /**
+     * Throughput measured in the last period.
+     */
+    private double lastThroughput = -1d;
+
+    /**
+     * Default constructor.
+     * @param scheduler The scheduler to adjust
+     */
+    public AdaptiveConcurrency(final Scheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Creates a scheduler suitable for adaptive sizing: it starts with as many
+     * slots as cores and may grow up to four times that number.
+     * @return A new scheduler
+     */
+    public static Scheduler scheduler() {
+        return new Scheduler(
+            AdaptiveConcurrency.CORES * 4,
+            AdaptiveConcurrency.CORES
+        );
+    }
+
+    /**
+     * Starts adjusting the scheduler.
+     */
+    public void start() {
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "adaptive-concurrency");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timer.scheduleAtFixedRate(
+            this::adjust,
+            AdaptiveConcurrency.PERIOD,
+            AdaptiveConcurrency.PERIOD,
+            TimeUnit.MILLISECONDS
+        );
+    }
+
+    /**
+     * Stops adjusting the scheduler.
+     * @return The final thread-pool size
+     */
+    public int stop() {
+        if (this.timer != null)
+            this.timer.shutdownNow();
+        return this.scheduler.limit();
+    }
+
+    /**
+     * Records a finished task.
+     * @param timedOut Whether the task timed out
+     */
+    public void record(final boolean timedOut) {
+        this.completed.incrementAndGet();
+        if (timedOut)
+            this.timeouts.incrementAndGet();
+    }
+
+    /**
+     * Measures the last period and moves the thread-pool size one step.
+     */
+    private void adjust() {
+        final long completed = this.completed.get();
+        final long timeouts = this.timeouts.get();
+        final long finished = completed - this.lastCompleted;
+        if (finished == 0)
+            return;
+        final double rate = (timeouts - this.lastTimeouts) / (double) finished;
+        final double throughput = (finished - (timeouts - this.lastTimeouts))
+            / (AdaptiveConcurrency.PERIOD / 1000d);
+        final double load = ManagementFactory.getOperatingSystemMXBean()
+            .getSystemLoadAverage() / AdaptiveConcurrency.CORES;
+        this.lastCompleted = completed;
+        this.lastTimeouts = timeouts;
+        if (rate > AdaptiveConcurrency.MAX_TIMEOUT_RATE) {
+            this.direction = -1;
+        } else if (this.lastThroughput >= 0 && throughput
+            < this.lastThroughput * (1 - AdaptiveConcurrency.TOLERANCE)) {
+            this.direction = -this.direction;
+        }
+        if (this.direction > 0 && load > AdaptiveConcurrency.MAX_LOAD)
+            this.direction = -1;
+        this.lastThroughput = throughput;
+        final int limit = this.scheduler.limit();
+        final int step = Math.max(1, limit / 10);
+        this.scheduler.limit(limit + this.direction * step);
+    }
+
+}
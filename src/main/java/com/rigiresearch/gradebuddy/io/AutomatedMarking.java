@@ -21,21 +21,35 @@
  */
 package com.rigiresearch.gradebuddy.io;
 
+import com.rigiresearch.gradebuddy.model.OutputStore;
 import com.rigiresearch.gradebuddy.model.Result;
 import com.rigiresearch.gradebuddy.model.Submission;
+import com.rigiresearch.gradebuddy.model.TestResult;
+import com.rigiresearch.gradebuddy.model.Timing;
+import com.rigiresearch.gradebuddy.model.Usage;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import lombok.AllArgsConstructor;
 import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 import lombok.experimental.Accessors;
 import me.tongfei.progressbar.ProgressBar;
 
@@ -47,15 +61,302 @@ import me.tongfei.progressbar.ProgressBar;
  * @since 0.0.1
  */
 @Accessors(fluent = true)
-@AllArgsConstructor
+@RequiredArgsConstructor
 @Getter
 public final class AutomatedMarking implements Serializable {
 
+    /**
+     * A part whose test cases are running: it collects their results until
+     * the last one finishes.
+     * @author Miguel Jimenez (miguel@uvic.ca)
+     * @date 2017-11-15
+     * @version $Id$
+     * @since 0.0.1
+     */
+    private static final class TestRun {
+
+        /**
+         * Maximum number of failing generated inputs reported.
+         */
+        private static final int MAX_REPORTED_INPUTS = 3;
+
+        /**
+         * Maximum number of characters of a reported input.
+         */
+        private static final int MAX_INPUT_PREVIEW = 120;
+
+        /**
+         * The submission.
+         */
+        private final Submission submission;
+
+        /**
+         * The index of the marking script.
+         */
+        private final int part;
+
+        /**
+         * The workspace the test cases run on.
+         */
+        private final Workspace workspace;
+
+        /**
+         * The comparison declaring the test cases.
+         */
+        private final Comparison comparison;
+
+        /**
+         * The result of the marking script.
+         */
+        private final Result script;
+
+        /**
+         * Call-back run for the combined result once it is stored.
+         */
+        private final Consumer<Result> published;
+
+        /**
+         * The result of each test case, as they finish.
+         */
+        private final TestResult[] results;
+
+        /**
+         * Whether each test case was skipped after too many mismatches.
+         */
+        private final boolean[] skipped;
+
+        /**
+         * The number of test cases still running.
+         */
+        private final AtomicInteger remaining;
+
+        /**
+         * The number of test cases that did not pass so far.
+         */
+        private final AtomicInteger failures = new AtomicInteger();
+
+        /**
+         * Whether a test case was discarded, e.g., because the marking was
+         * cancelled.
+         */
+        private volatile boolean discarded;
+
+        /**
+         * Default constructor.
+         * @param submission The submission
+         * @param part The index of the marking script
+         * @param workspace The workspace the test cases run on
+         * @param comparison The comparison declaring the test cases
+         * @param script The result of the marking script
+         * @param published Call-back run for the combined result
+         */
+        TestRun(final Submission submission, final int part,
+            final Workspace workspace, final Comparison comparison,
+            final Result script, final Consumer<Result> published) {
+            this.submission = submission;
+            this.part = part;
+            this.workspace = workspace;
+            this.comparison = comparison;
+            this.script = script;
+            this.published = published;
+            this.results = new TestResult[comparison.tests().size()];
+            this.skipped = new boolean[this.results.length];
+            this.remaining = new AtomicInteger(this.results.length);
+        }
+
+        /**
+         * Whether the remaining test cases should not run, because enough
+         * of them did not pass.
+         * @return Whether the part stopped early
+         */
+        boolean stopped() {
+            return this.comparison.mismatches() > 0
+                && this.failures.get() >= this.comparison.mismatches();
+        }
+
+        /**
+         * Skips a test case.
+         * @param index The index of the test case
+         * @return The result of the skipped test case
+         */
+        TestResult skip(final int index) {
+            final TestCase test = this.comparison.tests().get(index);
+            this.skipped[index] = true;
+            return new TestResult(test.name(), test.weight(), 0d,
+                "Not run", false);
+        }
+
+        /**
+         * Counts a test case that just ran.
+         * @param result The test result
+         */
+        void ran(final TestResult result) {
+            if (!result.passed())
+                this.failures.incrementAndGet();
+        }
+
+        /**
+         * Records the result of a test case.
+         * @param index The index of the test case
+         * @param result The test result
+         * @return Whether it was the last test case to finish
+         */
+        boolean finish(final int index, final TestResult result) {
+            this.results[index] = result;
+            return this.remaining.decrementAndGet() == 0;
+        }
+
+        /**
+         * Records a test case that was dropped without a result. The part is
+         * then not published.
+         * @return Whether it was the last test case to finish
+         */
+        boolean discard() {
+            this.discarded = true;
+            return this.remaining.decrementAndGet() == 0;
+        }
+
+        /**
+         * Combines the results of the test cases. The part is worth the
+         * declared points (or the script marks) weighted by the fraction of
+         * each test case passed; skipped test cases count as failed. Failing
+         * test cases with generated inputs are summarized by the smallest
+         * inputs.
+         * @return The part result
+         */
+        Result combine() {
+            double total = 0d;
+            double earned = 0d;
+            int passed = 0;
+            int skipped = 0;
+            boolean timedOut = this.script.timedOut();
+            final List<TestCase> generated = new ArrayList<>();
+            final StringBuilder failures = new StringBuilder();
+            final StringBuilder output = new StringBuilder();
+            for (int i = 0; i < this.results.length; i++) {
+                final TestCase test = this.comparison.tests().get(i);
+                final TestResult result = this.results[i];
+                total += result.weight();
+                earned += result.weight() * result.score();
+                timedOut |= result.timedOut();
+                if (result.passed())
+                    passed++;
+                if (this.skipped[i])
+                    skipped++;
+                if (result.passed() && test.generated() || this.skipped[i])
+                    continue;
+                if (!result.passed() && test.generated()) {
+                    generated.add(test);
+                } else if (!result.passed()) {
+                    failures.append(
+                        String.format(
+                            "\n%s: %s",
+                            result.name(),
+                            TestRun.firstLine(result.feedback())
+                        )
+                    );
+                }
+                output.append(
+                    String.format(
+                        "== %s (%s) ==\n%s\n",
+                        result.name(),
+                        result.passed() ? "passed" : "failed",
+                        result.feedback()
+                    )
+                );
+            }
+            generated.sort(Comparator.comparingLong(t -> t.input().length()));
+            for (TestCase test : generated.subList(0,
+                Math.min(TestRun.MAX_REPORTED_INPUTS, generated.size()))) {
+                failures.append(
+                    String.format(
+                        "\n%s, input %s: %s",
+                        test.name(),
+                        TestRun.preview(test.input()),
+                        TestRun.firstLine(
+                            this.results[this.comparison.tests().indexOf(test)]
+                                .feedback()
+                        )
+                    )
+                );
+            }
+            final double points = Double.isNaN(this.comparison.points()) ?
+                this.script.marks() : this.comparison.points();
+            final String summary = String.format(
+                "%d of %d test case(s) passed%s%s",
+                passed,
+                this.results.length,
+                skipped == 0 ? "" : String.format(
+                    " (%d not run after %d mismatches)",
+                    skipped,
+                    this.comparison.mismatches()
+                ),
+                failures
+            );
+            return new Result(
+                this.script.markedFile(),
+                total == 0 ? 0d : Math.round(points * earned / total * 100d)
+                    / 100d,
+                this.script.feedback().isEmpty() ? summary
+                    : String.format("%s\n%s", this.script.feedback(), summary),
+                output.toString()
+            ).timedOut(timedOut)
+             .usage(this.script.usage())
+             .timing(this.script.timing())
+             .tests(Arrays.asList(this.results));
+        }
+
+        /**
+         * The first line of a text.
+         * @param text The text
+         * @return The text up to its first line break
+         */
+        private static String firstLine(final String text) {
+            return text.split("\n", 2)[0];
+        }
+
+        /**
+         * Shows the beginning of an input file on a single line.
+         * @param input The input file
+         * @return The quoted input, with escaped line breaks
+         */
+        private static String preview(final File input) {
+            final byte[] bytes = new byte[TestRun.MAX_INPUT_PREVIEW];
+            int length = 0;
+            try (InputStream stream = new FileInputStream(input)) {
+                int read;
+                while (length < bytes.length && (read = stream.read(bytes,
+                    length, bytes.length - length)) > 0)
+                    length += read;
+            } catch (IOException e) {
+                return "?";
+            }
+            return String.format(
+                "\"%s%s\"",
+                new String(bytes, 0, length, StandardCharsets.UTF_8)
+                    .replace("\n", "\\n"),
+                input.length() > length ? "..." : ""
+            );
+        }
+
+    }
+
     /**
      * Serial version UID.
      */
     private static final long serialVersionUID = 2673931393804564234L;
 
+    /**
+     * Thread-pool size requesting the pool to be sized automatically.
+     */
+    public static final int AUTOMATIC = 0;
+
+    /**
+     * Priority given to the tasks of a submission requested by the user,
+     * above any priority declared by the marking scripts.
+     */
+    private static final int REQUESTED = 1000000;
+
     /**
      * The collection of submissions.
      */
@@ -77,37 +378,633 @@ public final class AutomatedMarking implements Serializable {
     private final TimeUnit unit;
 
     /**
-     * Marks all of the submissions.
-     * @param threads The thread-pool size to use in marking the assignments
+     * How submissions are cloned before running a marking script on them.
+     */
+    @Setter
+    private Workspace.Mode workspaces = Workspace.Mode.NONE;
+
+    /**
+     * Whether to run a backup copy of tasks lagging behind once there is
+     * nothing else to mark.
+     */
+    @Setter
+    private boolean speculative = false;
+
+    /**
+     * The thread-pool size used to re-mark timed out tasks after the main
+     * run (0 disables the retry phase).
+     */
+    @Setter
+    private int retryThreads = 0;
+
+    /**
+     * The timeout for re-marking timed out tasks (0 means the same timeout
+     * as the main run).
+     */
+    @Setter
+    private long retryTimeout = 0L;
+
+    /**
+     * Whether to pin each marking task to its own set of cores.
+     */
+    @Setter
+    private boolean pinned = false;
+
+    /**
+     * The number of cores reserved for the JVM when pinning tasks.
+     */
+    @Setter
+    private int reservedCores = 0;
+
+    /**
+     * The CPU sets marking tasks are pinned to (null if tasks are not
+     * pinned).
+     */
+    private CpuSets cpuSets;
+
+    /**
+     * Call-back run, on a marking thread, whenever a result of the main run
+     * or the retry phase is stored.
+     */
+    @Setter
+    private transient Consumer<Submission> listener;
+
+    /**
+     * The schedulers marking submissions, so that the tasks of a submission
+     * can be moved to the front of their queues.
+     */
+    private transient List<Scheduler> schedulers;
+
+    /**
+     * Number of prioritization requests, so that the latest one wins.
+     */
+    private transient int requests;
+
+    /**
+     * The benchmark declared by each marking script, read once.
+     */
+    private transient Map<File, Benchmark> benchmarks;
+
+    /**
+     * The output comparison declared by each marking script, read once.
+     */
+    private transient Map<File, Comparison> comparisons;
+
+    /**
+     * The distinct outputs of the results. Backups store each distinct
+     * output once since the results share it.
+     */
+    private transient OutputStore outputs;
+
+    /**
+     * The full-text index of the results, saved along with the backup.
+     */
+    private SearchIndex index;
+
+    /**
+     * Marks all of the submissions. Each (submission, script) pair is
+     * scheduled as a separate task, admitted according to the resource class
+     * declared by the script. Tasks that timed out are then re-marked at a
+     * lower concurrency, if the retry phase is enabled.
+     * @param threads The thread-pool size to use in marking the assignments,
+     *  or {@link #AUTOMATIC} to adjust it based on the measured throughput
      */
     public void mark(final int threads)
         throws Exception {
-        final ProgressBar pb = new ProgressBar("Marking", this.submissions.size());
-        pb.start();
-        final CountDownLatch latch = new CountDownLatch(this.submissions.size());
-        final ThreadPoolExecutor executor = new ThreadPoolExecutor(
-            threads,
-            threads,
-            0L,
-            TimeUnit.MILLISECONDS,
-            new ArrayBlockingQueue<>(threads),
-            new ThreadPoolExecutor.CallerRunsPolicy()
+        // The CPU sets are sized for the thread-pool size, which the
+        // adaptive sizing would then change
+        if (this.pinned && threads == AutomatedMarking.AUTOMATIC)
+            throw new IllegalArgumentException(
+                "CPU pinning requires a fixed thread-pool size"
+            );
+        final List<ResourceClass> classes = this.resourceClasses();
+        final Scheduler scheduler;
+        final AdaptiveConcurrency adaptive;
+        if (threads == AutomatedMarking.AUTOMATIC) {
+            scheduler = AdaptiveConcurrency.scheduler();
+            adaptive = new AdaptiveConcurrency(scheduler);
+            adaptive.start();
+        } else {
+            scheduler = new Scheduler(threads);
+            adaptive = null;
+        }
+        scheduler.speculative(this.speculative);
+        this.track(scheduler);
+        if (this.pinned) {
+            this.cpuSets = new CpuSets(scheduler.limit(), this.reservedCores);
+            this.cpuSets.confineJvm();
+        }
+        this.run(
+            "Marking",
+            this.submissions,
+            scheduler,
+            classes,
+            (submission, result) -> {
+                if (adaptive != null)
+                    adaptive.record(result.timedOut());
+                this.announce(submission);
+            }
         );
-        for (Submission s : this.submissions) {
-            executor.submit(() -> {
-                try {
-                    s.results(this.markingResults(s.directory()));
-                    pb.step();
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    latch.countDown();
+        scheduler.shutdown();
+        if (adaptive != null) {
+            System.err.printf(
+                "Thread-pool size settled at %d (use --thread-pool %1$d to "
+                + "pin it)\n",
+                adaptive.stop()
+            );
+        }
+        this.retryTimeouts(classes);
+    }
+
+    /**
+     * Marks a random sample of the submissions, discarding the results, to
+     * forecast the duration of the whole run.
+     * @param sample The number of submissions to mark
+     * @param threads The thread-pool size to use
+     * @return The forecast built from the sample
+     * @throws Exception If the marking scripts cannot be read
+     */
+    public Forecast estimate(final int sample, final int threads)
+        throws Exception {
+        final List<Submission> shuffled = new ArrayList<>(this.submissions);
+        Collections.shuffle(shuffled);
+        final List<Submission> chosen = new ArrayList<>();
+        for (Submission s : shuffled.subList(0, Math.min(sample, shuffled.size())))
+            chosen.add(new Submission(s.directory()));
+        final Scheduler scheduler = new Scheduler(threads);
+        final Forecast forecast = this.run(
+            "Sampling",
+            chosen,
+            scheduler,
+            this.resourceClasses(),
+            (submission, result) -> { }
+        );
+        scheduler.shutdown();
+        // The samples are dropped, so their outputs need not be kept
+        final OutputStore outputs = this.outputs();
+        for (Submission s : chosen)
+            s.results().forEach(outputs::release);
+        return forecast;
+    }
+
+    /**
+     * Moves the pending tasks of a submission, in any ongoing marking, to
+     * the front of the queue. The most recently prioritized submission goes
+     * first.
+     * @param submission The submission
+     */
+    public synchronized void prioritize(final Submission submission) {
+        if (this.schedulers == null)
+            return;
+        this.schedulers.removeIf(Scheduler::finished);
+        this.requests++;
+        for (Scheduler scheduler : this.schedulers)
+            scheduler.prioritize(
+                submission,
+                AutomatedMarking.REQUESTED + this.requests
+            );
+    }
+
+    /**
+     * The full-text index of the results, built as they are stored. Backups
+     * saved before the index existed are indexed on first use.
+     * @return The index
+     */
+    public synchronized SearchIndex index() {
+        if (this.index == null) {
+            this.index = new SearchIndex(this.submissions, this.scripts.size());
+            this.index.indexAll();
+        }
+        return this.index;
+    }
+
+    /**
+     * The distinct outputs of the results. Results loaded from a backup are
+     * stored on first use, so that new results share their outputs.
+     * @return The output store
+     */
+    public synchronized OutputStore outputs() {
+        if (this.outputs == null) {
+            this.outputs = new OutputStore();
+            for (Submission submission : this.submissions) {
+                for (Result result : submission.results()) {
+                    if (!result.pending())
+                        this.outputs.retain(this.outputs.intern(result));
                 }
-            });
+            }
+        }
+        return this.outputs;
+    }
+
+    /**
+     * Marks every part of every submission as pending, so that they can be
+     * displayed before the marking starts.
+     */
+    public void prepare() {
+        for (Submission s : this.submissions)
+            s.results(this.pendingResults());
+    }
+
+    /**
+     * Whether the results of a submission were prepared, i.e., every part is
+     * pending.
+     * @param submission The submission
+     * @return Whether the submission has one pending result per script
+     */
+    private boolean prepared(final Submission submission) {
+        return submission.results().size() == this.scripts.size()
+            && submission.results().stream().allMatch(Result::pending);
+    }
+
+    /**
+     * Re-marks every part of the given submissions in the background, e.g.,
+     * after fixing a marking script.
+     * @param targets The submissions to re-mark
+     * @param threads The thread-pool size to use
+     * @param marked Call-back run, on a marking thread, once each result has
+     *  been stored
+     * @return The scheduler running the tasks, to wait for or cancel them
+     * @throws IOException If a marking script cannot be read
+     */
+    public Scheduler remark(final List<Submission> targets, final int threads,
+        final BiConsumer<Submission, Result> marked) throws IOException {
+        final List<ResourceClass> classes = this.resourceClasses();
+        final Scheduler scheduler = new Scheduler(threads)
+            .speculative(this.speculative);
+        this.track(scheduler);
+        final Forecast forecast = new Forecast(classes);
+        for (Submission s : targets) {
+            for (int i = 0; i < this.scripts.size(); i++) {
+                scheduler.submit(
+                    this.task(scheduler, s, i, classes.get(i), this.timeout,
+                        forecast, result -> marked.accept(s, result))
+                );
+            }
+        }
+        scheduler.shutdown();
+        return scheduler;
+    }
+
+    /**
+     * Marks every part of the given submissions and waits for them to finish,
+     * displaying a progress bar with the estimated remaining time.
+     * @param label The progress bar label
+     * @param targets The submissions to mark
+     * @param scheduler The scheduler running the tasks
+     * @param classes The resource class of each script
+     * @param published Call-back run for each result once it is stored
+     * @return The forecast built from the observed task durations
+     * @throws InterruptedException If interrupted while waiting
+     * @throws IOException If the test cases of a script cannot be read
+     */
+    private Forecast run(final String label, final List<Submission> targets,
+        final Scheduler scheduler, final List<ResourceClass> classes,
+        final BiConsumer<Submission, Result> published)
+        throws InterruptedException, IOException {
+        final Forecast forecast = new Forecast(classes);
+        final int[] pending = new int[this.scripts.size()];
+        final ProgressBar pb = new ProgressBar(
+            label,
+            targets.size() * this.scripts.size()
+        );
+        pb.start();
+        for (Submission s : targets) {
+            // Results prepared for display are filled in place
+            if (!this.prepared(s))
+                s.results(this.pendingResults());
+            for (int i = 0; i < this.scripts.size(); i++) {
+                final int part = i;
+                pending[part]++;
+                scheduler.submit(
+                    this.task(scheduler, s, part, classes.get(part),
+                        this.timeout, forecast, result -> {
+                            published.accept(s, result);
+                            synchronized (pending) {
+                                pending[part]--;
+                                pb.setExtraMessage(
+                                    String.format(
+                                        "ETA %s",
+                                        Forecast.format(
+                                            forecast.remaining(
+                                                pending,
+                                                scheduler.limit()
+                                            )
+                                        )
+                                    )
+                                );
+                                pb.step();
+                            }
+                        }
+                    )
+                );
+            }
         }
-        executor.shutdown();
-        latch.await();
+        scheduler.await();
         pb.stop();
+        return forecast;
+    }
+
+    /**
+     * Re-marks the tasks that timed out, typically because the machine was
+     * saturated, using the retry thread-pool size and timeout.
+     * @param classes The resource class of each script
+     * @throws InterruptedException If interrupted while waiting
+     * @throws IOException If the test cases of a script cannot be read
+     */
+    private void retryTimeouts(final List<ResourceClass> classes)
+        throws InterruptedException, IOException {
+        if (this.retryThreads < 1)
+            return;
+        final Scheduler scheduler = new Scheduler(this.retryThreads)
+            .speculative(this.speculative);
+        this.track(scheduler);
+        final Forecast forecast = new Forecast(classes);
+        int retries = 0;
+        final ProgressBar pb = new ProgressBar("Retrying", 0);
+        for (Submission s : this.submissions) {
+            for (int i = 0; i < s.results().size(); i++) {
+                if (!s.results().get(i).timedOut())
+                    continue;
+                scheduler.submit(
+                    this.task(scheduler, s, i, classes.get(i),
+                        this.retryTimeout > 0 ? this.retryTimeout : this.timeout,
+                        forecast, result -> {
+                            result.retried(true);
+                            this.announce(s);
+                            pb.step();
+                        }
+                    )
+                );
+                retries++;
+            }
+        }
+        if (retries > 0) {
+            pb.maxHint(retries);
+            pb.start();
+            scheduler.await();
+            pb.stop();
+        }
+        scheduler.shutdown();
+    }
+
+    /**
+     * Creates the task of marking one submission part. Parts marked by test
+     * cases run the script first, and then submit one task per test case to
+     * the same scheduler; the part is published once its last test case
+     * finishes.
+     * @param scheduler The scheduler running the task
+     * @param submission The submission
+     * @param part The index of the marking script
+     * @param resources The resource class of the marking script
+     * @param timeout The timeout
+     * @param forecast The forecast recording the task duration
+     * @param published Call-back run for the result once it is stored
+     * @return The task
+     * @throws IOException If the test cases cannot be read
+     */
+    private Scheduler.Task task(final Scheduler scheduler,
+        final Submission submission, final int part,
+        final ResourceClass resources, final long timeout,
+        final Forecast forecast, final Consumer<Result> published)
+        throws IOException {
+        final Comparison comparison = this.comparison(this.scripts.get(part));
+        if (comparison.tested()) {
+            return new Scheduler.Task(
+                resources,
+                speculative -> this.tested(scheduler, submission, part,
+                    resources, comparison, timeout, forecast, published)
+            ).owner(submission)
+             .priority(resources.priority())
+             .speculable(false);
+        }
+        return new Scheduler.Task(resources, speculative -> {
+            final long start = System.currentTimeMillis();
+            final Result result = this.safeMarkingResult(
+                submission.directory(),
+                this.scripts.get(part),
+                this.cloneMode(speculative),
+                timeout
+            );
+            final long duration = System.currentTimeMillis() - start;
+            final SearchIndex.Entry entry = new SearchIndex.Entry(result);
+            return () -> {
+                forecast.record(part, duration);
+                this.store(submission, part, result, entry, published);
+            };
+        }).owner(submission)
+          .priority(resources.priority());
+    }
+
+    /**
+     * Runs the script of a part marked by test cases, keeping its workspace
+     * open for the test cases.
+     * @param scheduler The scheduler running the task
+     * @param submission The submission
+     * @param part The index of the marking script
+     * @param resources The resource class of the marking script
+     * @param comparison The comparison declaring the test cases
+     * @param timeout The timeout
+     * @param forecast The forecast recording the task duration
+     * @param published Call-back run for the result once it is stored
+     * @return An action submitting the test cases, or publishing the script
+     *  result if they cannot run
+     * @throws InterruptedException If the marking was interrupted
+     */
+    private Runnable tested(final Scheduler scheduler,
+        final Submission submission, final int part,
+        final ResourceClass resources, final Comparison comparison,
+        final long timeout, final Forecast forecast,
+        final Consumer<Result> published) throws InterruptedException {
+        final long start = System.currentTimeMillis();
+        Workspace workspace = null;
+        Result result;
+        try {
+            workspace = new Workspace(submission.directory(), this.workspaces);
+            result = this.markingResult(
+                this.scripts.get(part),
+                workspace,
+                timeout
+            );
+        } catch (InterruptedException e) {
+            AutomatedMarking.close(workspace);
+            throw e;
+        } catch (Exception e) {
+            e.printStackTrace();
+            result = new Result(new File(""), 0d, e.getMessage(), "");
+        }
+        final long duration = System.currentTimeMillis() - start;
+        final Workspace opened = workspace;
+        final Result script = result;
+        return () -> {
+            forecast.record(part, duration);
+            if (opened == null || script.timedOut()) {
+                AutomatedMarking.close(opened);
+                final Result stored = this.outputs().intern(script);
+                this.store(submission, part, stored,
+                    new SearchIndex.Entry(stored), published);
+                return;
+            }
+            final TestRun run = new TestRun(submission, part, opened,
+                comparison, script, published);
+            for (int i = 0; i < comparison.tests().size(); i++)
+                scheduler.submit(this.test(run, i, resources, timeout));
+        };
+    }
+
+    /**
+     * Creates the task of running one test case of a part. Once the declared
+     * number of test cases did not pass, the remaining ones are skipped. The
+     * last test case to finish combines the results and publishes the part,
+     * unless some test case was cancelled; either way, it deletes the
+     * workspace.
+     * @param run The part being tested
+     * @param index The index of the test case
+     * @param resources The resource class of the marking script
+     * @param timeout The timeout
+     * @return The task
+     */
+    private Scheduler.Task test(final TestRun run, final int index,
+        final ResourceClass resources, final long timeout) {
+        return new Scheduler.Task(resources, speculative -> {
+            final TestResult result;
+            if (run.stopped()) {
+                result = run.skip(index);
+            } else {
+                result = this.testResult(run, index, timeout);
+                run.ran(result);
+            }
+            return () -> {
+                if (!run.finish(index, result))
+                    return;
+                AutomatedMarking.close(run.workspace);
+                if (run.discarded)
+                    return;
+                final Result combined = this.outputs().intern(run.combine());
+                this.store(run.submission, run.part, combined,
+                    new SearchIndex.Entry(combined), run.published);
+            };
+        }).owner(run.submission)
+          .priority(resources.priority())
+          .speculable(false)
+          .discard(() -> {
+              // The last test case to finish deletes the workspace
+              if (run.discard())
+                  AutomatedMarking.close(run.workspace);
+          });
+    }
+
+    /**
+     * Runs one test case of a part against the submission's workspace.
+     * @param run The part being tested
+     * @param index The index of the test case
+     * @param timeout The timeout
+     * @return The test result
+     * @throws InterruptedException If the test case was interrupted
+     */
+    private TestResult testResult(final TestRun run, final int index,
+        final long timeout) throws InterruptedException {
+        final TestCase test = run.comparison.tests().get(index);
+        final CpuSets sets = this.cpuSets;
+        final int set = sets == null ? -1 : sets.acquire();
+        try {
+            final Comparison.Outcome outcome = run.comparison.test(
+                run.workspace.directory(),
+                test,
+                sets == null ? null : sets.cpus(set),
+                timeout,
+                this.unit
+            );
+            return new TestResult(test.name(), test.weight(),
+                outcome.marks(), outcome.feedback(), false);
+        } catch (TimeoutException e) {
+            return new TestResult(test.name(), test.weight(), 0d,
+                "Timeout while running the test case", true);
+        } catch (IOException e) {
+            return new TestResult(test.name(), test.weight(), 0d,
+                e.getMessage(), false);
+        } finally {
+            if (sets != null)
+                sets.release(set);
+        }
+    }
+
+    /**
+     * Stores the result of a part, indexes it and runs the call-back.
+     * @param submission The submission
+     * @param part The index of the marking script
+     * @param result The result
+     * @param entry The result's search entry
+     * @param published Call-back run for the result once it is stored
+     */
+    private void store(final Submission submission, final int part,
+        final Result result, final SearchIndex.Entry entry,
+        final Consumer<Result> published) {
+        final Result previous = submission.results().set(part, result);
+        final OutputStore outputs = this.outputs();
+        outputs.retain(result);
+        // Drop the output of a replaced result unless others share it
+        if (previous != null && previous != result)
+            outputs.release(previous);
+        this.index().index(submission, part, entry);
+        published.accept(result);
+    }
+
+    /**
+     * Closes a workspace, reporting any error.
+     * @param workspace The workspace, or null
+     */
+    private static void close(final Workspace workspace) {
+        if (workspace == null)
+            return;
+        try {
+            workspace.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Registers a scheduler, so that its tasks can be prioritized. Finished
+     * schedulers are dropped on the next prioritization.
+     * @param scheduler The scheduler
+     */
+    private synchronized void track(final Scheduler scheduler) {
+        if (this.schedulers == null)
+            this.schedulers = new ArrayList<>();
+        this.schedulers.add(scheduler);
+    }
+
+    /**
+     * Creates a pending result for each marking script.
+     * @return A new list of results
+     */
+    private List<Result> pendingResults() {
+        final List<Result> results = new ArrayList<>();
+        for (int i = 0; i < this.scripts.size(); i++)
+            results.add(new Result(new File(""), 0d, "", "").pending(true));
+        return results;
+    }
+
+    /**
+     * Runs the listener, if there is one.
+     * @param submission The submission whose results changed
+     */
+    private void announce(final Submission submission) {
+        final Consumer<Submission> listener = this.listener;
+        if (listener != null)
+            listener.accept(submission);
+    }
+
+    /**
+     * Reads the resource class declared by each marking script.
+     * @return The resource classes, in the same order as the scripts
+     * @throws IOException If a script cannot be read
+     */
+    private List<ResourceClass> resourceClasses() throws IOException {
+        final List<ResourceClass> classes = new ArrayList<>();
+        for (File script : this.scripts)
+            classes.add(new ResourceClass(new Directives(script)));
+        return classes;
     }
 
     /**
@@ -138,32 +1035,204 @@ public final class AutomatedMarking implements Serializable {
      */
     public Result markingResult(final File submission, final File script)
         throws Exception {
+        return this.markingResult(
+            submission,
+            script,
+            this.workspaces,
+            this.timeout
+        );
+    }
+
+    /**
+     * Runs the shell script on a clone of the specified submission and return
+     * the corresponding marks.
+     * @param submission The submission to mark
+     * @param script The marking script
+     * @param mode How to clone the submission
+     * @param timeout The timeout
+     * @return The marking result
+     * @throws Exception If something bad happens when running the script
+     */
+    private Result markingResult(final File submission, final File script,
+        final Workspace.Mode mode, final long timeout) throws Exception {
+        final Workspace workspace = new Workspace(submission, mode);
+        try {
+            // Identical outputs are kept once
+            return this.outputs().intern(
+                this.markingResult(script, workspace, timeout)
+            );
+        } finally {
+            // A workspace that cannot be deleted does not void the result
+            AutomatedMarking.close(workspace);
+        }
+    }
+
+    /**
+     * Runs the shell script on a workspace and return the corresponding
+     * marks. The workspace is left open.
+     * @param script The marking script
+     * @param workspace The workspace holding the submission
+     * @param timeout The timeout
+     * @return The marking result
+     * @throws Exception If something bad happens when running the script
+     */
+    private Result markingResult(final File script, final Workspace workspace,
+        final long timeout) throws Exception {
         File file = new File("");
         double marks = 0d;
         String feedback = "";
         String output = "";
+        boolean timedOut = false;
+        Usage usage = null;
+        Timing timing = null;
+        final Benchmark benchmark = this.benchmark(script);
+        final Comparison comparison = this.comparison(script);
+        final CpuSets sets = this.cpuSets;
+        final int set = sets == null ? -1 : sets.acquire();
         try {
             final Command command = new Command(
                 new String[] {
                     "sh",
                     script.getName(),
-                    submission.getAbsolutePath()
+                    workspace.directory().getAbsolutePath()
                 }
             ).onDirectory(script.getParentFile())
-             .execute(this.timeout, this.unit);
+             .pinTo(sets == null ? null : sets.cpus(set))
+             .measure()
+             .execute(timeout, this.unit);
+            usage = command.result().usage();
             final Result r = this.handleOutput(
                 command.result().exitCode(),
                 command.result().outputStream().toString(),
                 command.result().errorStream().toString()
             );
-            file = r.markedFile();
+            file = workspace.restore(r.markedFile());
             marks = r.marks();
             feedback = r.feedback();
             output = r.output();
+            if (comparison.declared() && command.result().exitCode() == 0) {
+                try {
+                    final Comparison.Outcome outcome = comparison.compare(
+                        workspace.directory(),
+                        output,
+                        marks,
+                        timeout,
+                        this.unit
+                    );
+                    marks = outcome.marks();
+                    feedback = feedback.isEmpty() ? outcome.feedback()
+                        : String.format("%s\n%s", feedback, outcome.feedback());
+                    output = outcome.output();
+                } catch (TimeoutException | IOException e) {
+                    marks = 0d;
+                    feedback = String.format(
+                        "%s [Comparison failed: %s]",
+                        feedback,
+                        e instanceof TimeoutException ?
+                            "timeout" : e.getMessage()
+                    );
+                }
+            }
+            if (benchmark.declared() && command.result().exitCode() == 0) {
+                try {
+                    timing = benchmark.measure(
+                        workspace.directory(),
+                        sets == null ? null : sets.cpus(set),
+                        timeout,
+                        this.unit
+                    );
+                    feedback = String.format("%s [%s]", feedback, timing);
+                } catch (TimeoutException | IOException e) {
+                    feedback = String.format(
+                        "%s [Benchmark failed: %s]",
+                        feedback,
+                        e instanceof TimeoutException ?
+                            "timeout" : e.getMessage()
+                    );
+                }
+            }
         } catch (TimeoutException e) {
             feedback = "Timeout while trying to mark the submission";
+            timedOut = true;
+        } finally {
+            if (sets != null)
+                sets.release(set);
         }
-        return new Result(file, marks, feedback, output);
+        return new Result(file, marks, feedback, output)
+            .timedOut(timedOut)
+            .usage(usage)
+            .timing(timing);
+    }
+
+    /**
+     * Reads the benchmark declared by a marking script.
+     * @param script The marking script
+     * @return The benchmark, which may not be declared
+     * @throws IOException If the script cannot be read
+     */
+    private synchronized Benchmark benchmark(final File script)
+        throws IOException {
+        if (this.benchmarks == null)
+            this.benchmarks = new HashMap<>();
+        Benchmark benchmark = this.benchmarks.get(script);
+        if (benchmark == null) {
+            benchmark = new Benchmark(new Directives(script));
+            this.benchmarks.put(script, benchmark);
+        }
+        return benchmark;
+    }
+
+    /**
+     * Reads the output comparison declared by a marking script.
+     * @param script The marking script
+     * @return The comparison, which may not be declared
+     * @throws IOException If the script cannot be read
+     */
+    private synchronized Comparison comparison(final File script)
+        throws IOException {
+        if (this.comparisons == null)
+            this.comparisons = new HashMap<>();
+        Comparison comparison = this.comparisons.get(script);
+        if (comparison == null) {
+            comparison = new Comparison(new Directives(script));
+            this.comparisons.put(script, comparison);
+        }
+        return comparison;
+    }
+
+    /**
+     * Runs the shell script on the specified submission, reporting any error
+     * other than an interruption as the result's feedback.
+     * @param submission The submission to mark
+     * @param script The marking script
+     * @param mode How to clone the submission
+     * @param timeout The timeout
+     * @return The marking result
+     * @throws InterruptedException If the marking was interrupted
+     */
+    private Result safeMarkingResult(final File submission, final File script,
+        final Workspace.Mode mode, final long timeout)
+        throws InterruptedException {
+        try {
+            return this.markingResult(submission, script, mode, timeout);
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return new Result(new File(""), 0d, e.getMessage(), "");
+        }
+    }
+
+    /**
+     * The clone mode for a marking task. Speculative copies always run on
+     * their own workspace so that they do not collide with the original task.
+     * @param speculative Whether the task is a speculative copy
+     * @return The clone mode
+     */
+    private Workspace.Mode cloneMode(final boolean speculative) {
+        if (speculative && this.workspaces == Workspace.Mode.NONE)
+            return Workspace.Mode.COPY;
+        return this.workspaces;
     }
 
     /**
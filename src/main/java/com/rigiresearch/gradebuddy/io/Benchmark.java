@@ -0,0 +1,220 @@
+/**
+ * Copyright 2017 University of Victoria
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package com.rigiresearch.gradebuddy.io;
+
+import com.rigiresearch.gradebuddy.model.Timing;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+/**
+ * A timing mode for a marking part, declared by the marking script:
+ * {@code # gradebuddy: benchmark="./a.out input.txt" runs=10 warmup=2
+ * cpus=2-3 reference=solution}. After the marking script succeeds, the
+ * benchmark command is run repeatedly on the submission and, if given, on
+ * the reference implementation. The runs are pinned to the declared CPU
+ * list, one benchmark at a time so that concurrent tasks do not share it, or
+ * else to the CPU set leased by the task (with {@code --pin-cpus}).
+ * @author Miguel Jimenez (miguel@uvic.ca)
+ * @date 2017-11-08
+ * @version $Id$
+ * @since 0.0.1
+ */
+@Accessors(fluent = true)
+@Getter
+public final class Benchmark implements Serializable {
+
+    /**
+     * Serial version UID.
+     */
+    private static final long serialVersionUID = -1780584637302158375L;
+
+    /**
+     * Locks serializing the benchmarks pinned to the same declared CPU list.
+     */
+    private static final Map<String, Object> LOCKS =
+        new ConcurrentHashMap<>();
+
+    /**
+     * The command to time, run through the shell in the submission
+     * directory (null if the part is not timed).
+     */
+    private final String command;
+
+    /**
+     * The number of timed runs.
+     */
+    private final int runs;
+
+    /**
+     * The number of untimed runs before the timed ones.
+     */
+    private final int warmup;
+
+    /**
+     * The CPU list (as understood by taskset) the runs are pinned to, or
+     * null to run them anywhere.
+     */
+    private final String cpus;
+
+    /**
+     * The directory containing the reference implementation, or null.
+     */
+    private final File reference;
+
+    /**
+     * The timing of the reference implementation, measured once.
+     */
+    private transient Timing baseline;
+
+    /**
+     * Creates a benchmark from the directives of a marking script.
+     * @param directives The script directives
+     * @throws IOException If a directive has an invalid value
+     */
+    public Benchmark(final Directives directives) throws IOException {
+        this.command = directives.value("benchmark", null);
+        this.runs = Math.max(1, directives.integer("runs", 10));
+        this.warmup = Math.max(0, directives.integer("warmup", 1));
+        this.cpus = directives.value("cpus", null);
+        this.reference = directives.file("reference");
+    }
+
+    /**
+     * Whether the marking script declares a benchmark.
+     * @return Whether the part is timed
+     */
+    public boolean declared() {
+        return this.command != null;
+    }
+
+    /**
+     * Times the benchmark command on a submission.
+     * @param directory The submission directory
+     * @param leased The CPU list leased by the marking task, used if the
+     *  script does not declare one, or null
+     * @param timeout The timeout of each run
+     * @param unit The timeout unit
+     * @return The timing, compared against the reference implementation if
+     *  there is one
+     * @throws TimeoutException If a run times out
+     * @throws IOException If a run fails
+     * @throws InterruptedException If interrupted while running
+     */
+    public Timing measure(final File directory, final String leased,
+        final long timeout, final TimeUnit unit)
+        throws TimeoutException, IOException, InterruptedException {
+        final Timing timing = this.pinned(directory, leased, timeout, unit);
+        final Timing baseline = this.baseline(leased, timeout, unit);
+        if (baseline != null)
+            timing.reference(baseline.median());
+        return timing;
+    }
+
+    /**
+     * Times the reference implementation, the first time it is needed.
+     * @param leased The CPU list leased by the marking task, or null
+     * @param timeout The timeout of each run
+     * @param unit The timeout unit
+     * @return The reference timing, or null if there is no reference
+     * @throws TimeoutException If a run times out
+     * @throws IOException If a run fails
+     * @throws InterruptedException If interrupted while running
+     */
+    private synchronized Timing baseline(final String leased,
+        final long timeout, final TimeUnit unit)
+        throws TimeoutException, IOException, InterruptedException {
+        if (this.baseline == null && this.reference != null)
+            this.baseline = this.pinned(this.reference, leased, timeout, unit);
+        return this.baseline;
+    }
+
+    /**
+     * Runs the benchmark command repeatedly on a directory, pinned to the
+     * declared CPU list (waiting for other benchmarks pinned to it) or else
+     * to the leased one.
+     * @param directory The directory
+     * @param leased The CPU list leased by the marking task, or null
+     * @param timeout The timeout of each run
+     * @param unit The timeout unit
+     * @return The timing
+     * @throws TimeoutException If a run times out
+     * @throws IOException If a run fails
+     * @throws InterruptedException If interrupted while running
+     */
+    private Timing pinned(final File directory, final String leased,
+        final long timeout, final TimeUnit unit)
+        throws TimeoutException, IOException, InterruptedException {
+        if (this.cpus == null)
+            return this.time(directory, leased, timeout, unit);
+        synchronized (Benchmark.LOCKS.computeIfAbsent(this.cpus,
+            key -> new Object())) {
+            return this.time(directory, this.cpus, timeout, unit);
+        }
+    }
+
+    /**
+     * Runs the benchmark command repeatedly on a directory.
+     * @param directory The directory
+     * @param cpus The CPU list to pin the runs to, or null
+     * @param timeout The timeout of each run
+     * @param unit The timeout unit
+     * @return The timing
+     * @throws TimeoutException If a run times out
+     * @throws IOException If a run fails
+     * @throws InterruptedException If interrupted while running
+     */
+    private Timing time(final File directory, final String cpus,
+        final long timeout, final TimeUnit unit)
+        throws TimeoutException, IOException, InterruptedException {
+        final List<Double> durations = new ArrayList<>();
+        for (int i = 0; i < this.warmup + this.runs; i++) {
+            final long start = System.nanoTime();
+            final Command command = new Command(
+                new String[] {"sh", "-c", this.command}
+            ).onDirectory(directory)
+             .pinTo(cpus)
+             .execute(timeout, unit);
+            final long end = System.nanoTime();
+            if (command.result().exitCode() != 0) {
+                throw new IOException(
+                    String.format(
+                        "The benchmark command returned a non-zero code (%d)",
+                        command.result().exitCode()
+                    )
+                );
+            }
+            if (i >= this.warmup)
+                durations.add((end - start) / 1000000d);
+        }
+        return new Timing(durations);
+    }
+
+}
@@ -21,20 +21,37 @@
  */
 package com.rigiresearch.gradebuddy.io;
 
+import com.rigiresearch.gradebuddy.model.Usage;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import org.zeroturnaround.exec.InvalidExitValueException;
-import org.zeroturnaround.exec.ProcessExecutor;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.Accessors;
 
 /**
- * Represents a shell command.
+ * Represents a shell command. The output and error streams are redirected
+ * to temporary files, whose sizes are polled while the command runs, rather
+ * than multiplexed through a selector: the pipes of a {@link Process} are
+ * not selectable channels, so bounded in-memory buffers would need a thread
+ * per stream. Killing the descendants of a command needs its process id,
+ * from {@code Process.pid()} (Java 9) or the {@code pid} field of the Java 8
+ * implementation.
  * @author Miguel Jimenez (miguel@uvic.ca)
  * @date 2017-10-26
  * @version $Id$
@@ -68,6 +85,11 @@ public final class Command implements Serializable {
          * The standard error stream.
          */
         private final ByteArrayOutputStream errorStream;
+
+        /**
+         * The resources consumed by the command, if they were measured.
+         */
+        private final Usage usage;
     }
 
     /**
@@ -75,6 +97,47 @@ public final class Command implements Serializable {
      */
     private static final long serialVersionUID = -4806469868343750558L;
 
+    /**
+     * Maximum number of bytes kept from each output stream.
+     */
+    private static final int MAX_OUTPUT = 16 * 1024 * 1024;
+
+    /**
+     * Time (in milliseconds) between checks of the output size of a running
+     * command.
+     */
+    private static final long POLL = 100L;
+
+    /**
+     * The process table, used to find the descendants of a command.
+     */
+    private static final File PROC = new File("/proc");
+
+    /**
+     * Marker appended to a truncated output stream.
+     */
+    private static final byte[] TRUNCATED =
+        "\n[output truncated]\n".getBytes();
+
+    /**
+     * GNU time, used to measure the resources consumed by a command.
+     */
+    private static final File GNU_TIME = new File("/usr/bin/time");
+
+    /**
+     * Format of the shell's {@code times} built-in (e.g., 0m1.250s).
+     */
+    private static final Pattern TIMES = Pattern.compile(
+        "(\\d+)m([\\d.]+)s\\s+(\\d+)m([\\d.]+)s"
+    );
+
+    /**
+     * The CPU list commands that are not pinned run on, or null to run them
+     * on any core. Once the JVM is confined to its reserved cores, its
+     * children would otherwise inherit them.
+     */
+    private static volatile String unpinned;
+
     /**
      * The command parts.
      */
@@ -90,6 +153,27 @@ public final class Command implements Serializable {
      */
     private Result result;
 
+    /**
+     * Whether to measure the resources consumed by this command.
+     */
+    private boolean measured;
+
+    /**
+     * The CPU list (as understood by taskset) to run this command on, or
+     * null to run it on any core.
+     */
+    private String cpus;
+
+    /**
+     * The file to read the standard input from, or null to close it.
+     */
+    private File input;
+
+    /**
+     * The file to write the standard output to, or null to capture it.
+     */
+    private File output;
+
     /**
      * Sets a directory.
      * @param directory The directory
@@ -101,53 +185,377 @@ public final class Command implements Serializable {
     }
 
     /**
-     * Executes this command.
+     * Measures the CPU time and wall time of this command and its children,
+     * and the peak resident memory of the largest of its processes (GNU
+     * time reports the children's {@code ru_maxrss}, not the sum over the
+     * process tree).
+     * @return This command
+     */
+    public Command measure() {
+        this.measured = true;
+        return this;
+    }
+
+    /**
+     * Pins this command and its children to a set of cores.
+     * @param cpus The CPU list, as understood by taskset
+     * @return This command
+     */
+    public Command pinTo(final String cpus) {
+        this.cpus = cpus;
+        return this;
+    }
+
+    /**
+     * Pins the commands that are not pinned to a set of cores.
+     * @param cpus The CPU list, as understood by taskset, or null to run them
+     *  on any core
+     */
+    public static void pinUnpinnedTo(final String cpus) {
+        Command.unpinned = cpus;
+    }
+
+    /**
+     * Redirects the standard input of this command from a file.
+     * @param input The input file
+     * @return This command
+     */
+    public Command readFrom(final File input) {
+        this.input = input;
+        return this;
+    }
+
+    /**
+     * Redirects the standard output of this command to a file, instead of
+     * capturing it in the result.
+     * @param output The output file
+     * @return This command
+     */
+    public Command writeTo(final File output) {
+        this.output = output;
+        return this;
+    }
+
+    /**
+     * Executes this command. The output and error streams are redirected to
+     * temporary files rather than pumped through pipes, so running a command
+     * does not need any thread other than the caller's, no matter how many
+     * commands run at once. A command writing more than {@link #MAX_OUTPUT}
+     * bytes to either stream is killed, along with its descendants, and its
+     * output is truncated.
      * @param timeout The allowed timeout
      * @param unit A time unit
      * @return This command
-     * @throws TimeoutException See {@link ProcessExecutor#execute()}
-     * @throws InvalidExitValueException See {@link ProcessExecutor#execute()}
-     * @throws IOException See {@link ProcessExecutor#execute()}
-     * @throws InterruptedException See {@link ProcessExecutor#execute()}
+     * @throws TimeoutException If the command does not finish in time
+     * @throws IOException If the command cannot be started
+     * @throws InterruptedException If interrupted while waiting
      */
     public Command execute(long timeout, TimeUnit unit)
-        throws TimeoutException, InvalidExitValueException, IOException,
-            InterruptedException {
-        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        final ByteArrayOutputStream errorStream = new ByteArrayOutputStream();
-        final int exitCode = new ProcessExecutor()
-            .environment(System.getenv())
-            .directory(this.directory)
-            .command(this.parts)
-            .timeout(timeout, unit)
-            .redirectOutput(outputStream)
-            .redirectError(errorStream)
-            .readOutput(true)
-            .stopper((process) -> {
-                process.destroyForcibly();
-            })
-            .execute()
-            .getExitValue();
-        this.result = new Result(
-            exitCode,
-            outputStream,
-            errorStream
+        throws TimeoutException, IOException, InterruptedException {
+        final File output = this.output != null ? this.output
+            : File.createTempFile("gradebuddy-", ".out");
+        final File error = File.createTempFile("gradebuddy-", ".err");
+        final File report = this.measured ?
+            File.createTempFile("gradebuddy-", ".usage") : null;
+        final List<String> parts = new ArrayList<>();
+        final String cpus = this.cpus != null ? this.cpus : Command.unpinned;
+        if (cpus != null)
+            parts.addAll(Arrays.asList("taskset", "-c", cpus));
+        parts.addAll(
+            Arrays.asList(
+                this.measured ? Command.instrument(this.parts, report)
+                    : this.parts
+            )
         );
+        try {
+            final long start = System.nanoTime();
+            final ProcessBuilder builder = new ProcessBuilder(parts)
+                .directory(this.directory)
+                .redirectOutput(output)
+                .redirectError(error);
+            if (this.input != null)
+                builder.redirectInput(this.input);
+            final Process process = builder.start();
+            final int pid = Command.pid(process);
+            if (pid < 0) {
+                process.destroyForcibly();
+                throw new IOException(
+                    String.format(
+                        "Cannot determine the process id of %s, which is "
+                        + "needed to kill its descendants",
+                        Arrays.toString(this.parts)
+                    )
+                );
+            }
+            process.getOutputStream().close();
+            final long deadline = start + unit.toNanos(timeout);
+            try {
+                while (!process.waitFor(
+                    Math.min(
+                        Command.POLL,
+                        (deadline - System.nanoTime()) / 1000000L
+                    ),
+                    TimeUnit.MILLISECONDS)) {
+                    if (output.length() > Command.MAX_OUTPUT
+                        || error.length() > Command.MAX_OUTPUT) {
+                        Command.destroy(process, pid);
+                        process.waitFor();
+                        break;
+                    }
+                    if (System.nanoTime() - deadline >= 0) {
+                        Command.destroy(process, pid);
+                        throw new TimeoutException(
+                            String.format(
+                                "Timed out waiting for %s to finish",
+                                Arrays.toString(this.parts)
+                            )
+                        );
+                    }
+                }
+            } catch (InterruptedException e) {
+                Command.destroy(process, pid);
+                throw e;
+            }
+            final long wall = (System.nanoTime() - start) / 1000000L;
+            this.result = new Result(
+                process.exitValue(),
+                this.output != null ? new ByteArrayOutputStream()
+                    : Command.read(output),
+                Command.read(error),
+                this.measured ? Command.usage(report, wall) : null
+            );
+        } finally {
+            if (this.output == null)
+                output.delete();
+            error.delete();
+            if (report != null)
+                report.delete();
+        }
         return this;
     }
 
     /**
      * Executes this command with a timeout of 1min.
      * @return This command
-     * @throws TimeoutException See {@link ProcessExecutor#execute()}
-     * @throws InvalidExitValueException See {@link ProcessExecutor#execute()}
-     * @throws IOException See {@link ProcessExecutor#execute()}
-     * @throws InterruptedException See {@link ProcessExecutor#execute()}
+     * @throws TimeoutException If the command does not finish in time
+     * @throws IOException If the command cannot be started
+     * @throws InterruptedException If interrupted while waiting
      */
-    public Command execute() throws InvalidExitValueException,
-        TimeoutException, IOException, InterruptedException {
+    public Command execute() throws TimeoutException, IOException,
+        InterruptedException {
         this.execute(60, TimeUnit.SECONDS);
         return this;
     }
 
+    /**
+     * Kills a process and its descendants. The descendants are found before
+     * killing any process, as orphaned processes lose their parent.
+     * @param process The process
+     * @param pid The process id
+     */
+    private static void destroy(final Process process, final int pid) {
+        final List<String> pids = new ArrayList<>();
+        Command.descendants(pid, Command.parents(), pids);
+        process.destroyForcibly();
+        if (pids.isEmpty())
+            return;
+        final List<String> command =
+            new ArrayList<>(Arrays.asList("kill", "-9"));
+        command.addAll(pids);
+        try {
+            new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.appendTo(
+                    new File("/dev/null")))
+                .start()
+                .waitFor();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The id of a process.
+     * @param process The process
+     * @return The process id, or -1 if it cannot be determined
+     */
+    private static int pid(final Process process) {
+        try {
+            return ((Long) Process.class.getMethod("pid").invoke(process))
+                .intValue();
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Java 8
+        }
+        try {
+            final Field field = process.getClass().getDeclaredField("pid");
+            field.setAccessible(true);
+            return field.getInt(process);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Reads the parent of every running process from the process table.
+     * @return The process ids by parent process id
+     */
+    private static Map<String, List<String>> parents() {
+        final Map<String, List<String>> children = new HashMap<>();
+        final String[] pids = Command.PROC.list();
+        if (pids == null)
+            return children;
+        for (String pid : pids) {
+            if (!pid.chars().allMatch(Character::isDigit))
+                continue;
+            try {
+                final String stat = new String(
+                    Files.readAllBytes(
+                        new File(new File(Command.PROC, pid), "stat").toPath()
+                    )
+                );
+                // The command name may contain spaces and parentheses
+                final String[] fields = stat
+                    .substring(stat.lastIndexOf(')') + 2)
+                    .split(" ");
+                children.computeIfAbsent(fields[1], k -> new ArrayList<>())
+                    .add(pid);
+            } catch (IOException | RuntimeException e) {
+                // The process exited meanwhile
+            }
+        }
+        return children;
+    }
+
+    /**
+     * Collects the descendants of a process.
+     * @param pid The process id
+     * @param children The process ids by parent process id
+     * @param descendants The list to add the descendants to
+     */
+    private static void descendants(final int pid,
+        final Map<String, List<String>> children,
+        final List<String> descendants) {
+        for (String child : children.getOrDefault(
+            String.valueOf(pid), Collections.emptyList())) {
+            descendants.add(child);
+            Command.descendants(Integer.parseInt(child), children, descendants);
+        }
+    }
+
+    /**
+     * Reads a captured stream, up to {@link #MAX_OUTPUT} bytes.
+     * @param file The file the stream was redirected to
+     * @return The stream contents
+     * @throws IOException If the file cannot be read
+     */
+    private static ByteArrayOutputStream read(final File file)
+        throws IOException {
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try (InputStream input = new FileInputStream(file)) {
+            final byte[] buffer = new byte[8192];
+            int remaining = Command.MAX_OUTPUT;
+            int read;
+            while (remaining > 0 && (read = input.read(buffer, 0,
+                Math.min(buffer.length, remaining))) > 0) {
+                stream.write(buffer, 0, read);
+                remaining -= read;
+            }
+            if (remaining == 0 && input.read() >= 0)
+                stream.write(Command.TRUNCATED);
+        }
+        return stream;
+    }
+
+    /**
+     * Wraps a command so that its resource usage is written to a file, using
+     * GNU time if available or the shell's {@code times} built-in otherwise
+     * (which does not report memory).
+     * @param parts The command parts
+     * @param report The file to write the resource usage to
+     * @return The wrapped command parts
+     */
+    private static String[] instrument(final String[] parts,
+        final File report) {
+        final List<String> command = new ArrayList<>();
+        if (Command.GNU_TIME.canExecute()) {
+            command.addAll(
+                Arrays.asList(
+                    Command.GNU_TIME.getAbsolutePath(),
+                    "-f",
+                    "%U %S %M",
+                    "-o",
+                    report.getAbsolutePath()
+                )
+            );
+        } else {
+            command.addAll(
+                Arrays.asList(
+                    "sh",
+                    "-c",
+                    "\"$@\"; status=$?; times > \"$0\"; exit $status",
+                    report.getAbsolutePath()
+                )
+            );
+        }
+        command.addAll(Arrays.asList(parts));
+        return command.toArray(new String[command.size()]);
+    }
+
+    /**
+     * Reads the resource usage written by an instrumented command.
+     * @param report The file containing the resource usage
+     * @param wall The measured wall time (in milliseconds)
+     * @return The resource usage, or {@code null} if the report cannot be
+     *  parsed
+     * @throws IOException If the file cannot be read
+     */
+    private static Usage usage(final File report, final long wall)
+        throws IOException {
+        final List<String> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(report.toPath())) {
+            if (!line.trim().isEmpty())
+                lines.add(line.trim());
+        }
+        if (lines.isEmpty())
+            return new Usage(0L, 0L, wall, -1L);
+        final String last = lines.get(lines.size() - 1);
+        final Matcher matcher = Command.TIMES.matcher(last);
+        try {
+            if (matcher.find()) {
+                // The second line of times reports the children of the shell
+                return new Usage(
+                    Command.millis(matcher.group(1), matcher.group(2)),
+                    Command.millis(matcher.group(3), matcher.group(4)),
+                    wall,
+                    -1L
+                );
+            }
+            final String[] values = last.split("\\s+");
+            if (values.length < 3)
+                return null;
+            return new Usage(
+                Command.millis("0", values[0]),
+                Command.millis("0", values[1]),
+                wall,
+                Long.parseLong(values[2])
+            );
+        } catch (NumberFormatException e) {
+            // e.g., the script wrote to the report or time printed a warning
+            return null;
+        }
+    }
+
+    /**
+     * Converts a duration to milliseconds.
+     * @param minutes The minutes
+     * @param seconds The (decimal) seconds
+     * @return The duration in milliseconds
+     */
+    private static long millis(final String minutes, final String seconds) {
+        return Long.parseLong(minutes) * 60000L
+            + Math.round(Double.parseDouble(seconds) * 1000d);
+    }
+
 }
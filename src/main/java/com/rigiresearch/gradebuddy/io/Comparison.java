@@ -0,0 +1,600 @@
+/**
+ * Copyright 2017 University of Victoria
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package com.rigiresearch.gradebuddy.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+/**
+ * A comparison of the student output against the expected output, declared
+ * by the marking script:
+ * {@code # gradebuddy: expected=tests/out.txt whitespace=all tolerance=1e-6}
+ * or {@code # gradebuddy: compare="./a.out" input=tests/in.txt
+ * reference=solution}. The expected output is either read from a file or
+ * computed once by running the comparison command on the reference
+ * implementation. Marks are given in proportion to the lines that match.
+ * A part may also declare a list of {@link TestCase}s
+ * ({@code tests=tests/list.txt}), in which case the comparison command is
+ * run and compared once per test case, and a generator of random inputs
+ * ({@code generator="python gen.py" random=200 mismatches=3}), which adds
+ * one test case per input. Each input is generated, and each expected
+ * output computed, once for all the submissions.
+ * @author Miguel Jimenez (miguel@uvic.ca)
+ * @date 2017-11-14
+ * @version $Id$
+ * @since 0.0.1
+ */
+@Accessors(fluent = true)
+@Getter
+public final class Comparison implements Serializable {
+
+    /**
+     * How whitespace is compared.
+     */
+    public enum Whitespace {
+        /**
+         * Lines must be identical.
+         */
+        EXACT,
+
+        /**
+         * Trailing whitespace and trailing blank lines are ignored.
+         */
+        TRAILING,
+
+        /**
+         * Runs of whitespace are equivalent and blank lines are ignored.
+         */
+        ALL
+    }
+
+    /**
+     * The result of comparing a student output.
+     * @author Miguel Jimenez (miguel@uvic.ca)
+     * @date 2017-11-14
+     * @version $Id$
+     * @since 0.0.1
+     */
+    @Accessors(fluent = true)
+    @AllArgsConstructor
+    @Getter
+    public static final class Outcome {
+
+        /**
+         * The assigned marks.
+         */
+        private final double marks;
+
+        /**
+         * The differences found, as feedback.
+         */
+        private final String feedback;
+
+        /**
+         * The compared output.
+         */
+        private final String output;
+
+    }
+
+    /**
+     * Serial version UID.
+     */
+    private static final long serialVersionUID = 2330693185624417311L;
+
+    /**
+     * Maximum number of changed lines included in the feedback.
+     */
+    private static final int MAX_FEEDBACK_LINES = 12;
+
+    /**
+     * A decimal number.
+     */
+    private static final Pattern NUMBER = Pattern.compile(
+        "[-+]?(\\d+\\.?\\d*|\\.\\d+)([eE][-+]?\\d+)?"
+    );
+
+    /**
+     * The file containing the expected output, or null.
+     */
+    private final File expected;
+
+    /**
+     * The command whose output is compared, run through the shell, or null
+     * to compare the output reported by the marking script.
+     */
+    private final String command;
+
+    /**
+     * The file the comparison command reads its standard input from, or
+     * null.
+     */
+    private final File input;
+
+    /**
+     * The directory containing the reference implementation, or null.
+     */
+    private final File reference;
+
+    /**
+     * How whitespace is compared.
+     */
+    private final Whitespace whitespace;
+
+    /**
+     * The tolerance when comparing numbers, relative to the expected number
+     * (or absolute, below 1).
+     */
+    private final double tolerance;
+
+    /**
+     * The marks for a matching output, or NaN to use the marks reported by
+     * the marking script.
+     */
+    private final double points;
+
+    /**
+     * The test cases, if the part declares any.
+     */
+    private final List<TestCase> tests;
+
+    /**
+     * The command generating a random input from a seed, run through the
+     * shell on the script's directory, or null.
+     */
+    private final String generator;
+
+    /**
+     * The directory of the marking script.
+     */
+    private final File directory;
+
+    /**
+     * The number of mismatching test cases after which the remaining ones
+     * are not run (0 means running all of them).
+     */
+    private final int mismatches;
+
+    /**
+     * The expected lines of the part (under the null key) and of each test
+     * case, read or computed once. Test cases are told apart by identity,
+     * since their names may repeat.
+     */
+    private transient Map<TestCase, FutureTask<String[]>> lines;
+
+    /**
+     * Creates a comparison from the directives of a marking script.
+     * @param directives The script directives
+     * @throws IOException If the test list cannot be read or a directive has
+     *  an invalid value
+     */
+    public Comparison(final Directives directives) throws IOException {
+        this.expected = directives.file("expected");
+        this.command = directives.value("compare", null);
+        this.input = directives.file("input");
+        this.reference = directives.file("reference");
+        final String whitespace = directives.value("whitespace", "trailing");
+        try {
+            this.whitespace = Whitespace.valueOf(whitespace.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IOException(
+                String.format(
+                    "%s declares an invalid value '%s' for whitespace",
+                    directives.script(),
+                    whitespace
+                ),
+                e
+            );
+        }
+        this.tolerance = directives.decimal("tolerance", 0d);
+        this.points = directives.decimal("points", Double.NaN);
+        final File list = directives.file("tests");
+        this.tests = new ArrayList<>();
+        if (list != null)
+            this.tests.addAll(TestCase.read(list));
+        this.generator = directives.value("generator", null);
+        this.directory = directives.script().getAbsoluteFile().getParentFile();
+        this.mismatches = directives.integer("mismatches", 0);
+        if (this.generator != null) {
+            if (this.reference == null) {
+                throw new IOException(
+                    String.format(
+                        "%s declares a generator but no reference",
+                        directives.script()
+                    )
+                );
+            }
+            final File inputs = Files.createTempDirectory("gradebuddy-")
+                .toFile();
+            inputs.deleteOnExit();
+            final int random = directives.integer("random", 100);
+            for (int i = 1; i <= random; i++)
+                this.tests.add(TestCase.random(i, inputs));
+        }
+        if (!this.tests.isEmpty() && this.command == null) {
+            throw new IOException(
+                String.format(
+                    "%s declares test cases but no compare command",
+                    directives.script()
+                )
+            );
+        }
+    }
+
+    /**
+     * Whether the marking script declares a comparison of the whole part.
+     * @return Whether the output is compared
+     */
+    public boolean declared() {
+        return this.tests.isEmpty() && (this.expected != null
+            || this.command != null && this.reference != null);
+    }
+
+    /**
+     * Whether the marking script declares test cases.
+     * @return Whether the part is marked by test cases
+     */
+    public boolean tested() {
+        return !this.tests.isEmpty();
+    }
+
+    /**
+     * Compares the output of a submission against the expected output.
+     * @param directory The submission directory
+     * @param output The output reported by the marking script
+     * @param marks The marks reported by the marking script
+     * @param timeout The timeout of each run
+     * @param unit The timeout unit
+     * @return The marks and differences
+     * @throws TimeoutException If a run times out
+     * @throws IOException If the expected output cannot be obtained
+     * @throws InterruptedException If interrupted while running
+     */
+    public Outcome compare(final File directory, final String output,
+        final double marks, final long timeout, final TimeUnit unit)
+        throws TimeoutException, IOException, InterruptedException {
+        final String[] expected = this.expected(null, timeout, unit);
+        final double points = Double.isNaN(this.points) ? marks : this.points;
+        if (this.command == null)
+            return this.outcome(expected, output, "", points);
+        final Command command = this.run(directory, "", this.input, null,
+            timeout, unit);
+        return this.outcome(
+            expected,
+            command.result().outputStream().toString(),
+            Comparison.status(command),
+            points
+        );
+    }
+
+    /**
+     * Runs a test case on a submission and compares its output against the
+     * expected output.
+     * @param directory The submission directory
+     * @param test The test case
+     * @param cpus The CPU list to run the program on, or null
+     * @param timeout The timeout of each run
+     * @param unit The timeout unit
+     * @return The fraction of the test case passed (as marks), and the
+     *  differences
+     * @throws TimeoutException If a run times out
+     * @throws IOException If the expected output cannot be obtained
+     * @throws InterruptedException If interrupted while running
+     */
+    public Outcome test(final File directory, final TestCase test,
+        final String cpus, final long timeout, final TimeUnit unit)
+        throws TimeoutException, IOException, InterruptedException {
+        final String[] expected = this.expected(test, timeout, unit);
+        final Command command = this.run(directory, test.args(),
+            test.input(), cpus, timeout, unit);
+        return this.outcome(
+            expected,
+            command.result().outputStream().toString(),
+            Comparison.status(command),
+            1d
+        );
+    }
+
+    /**
+     * Compares an output against the expected lines.
+     * @param expected The normalized expected lines
+     * @param actual The output
+     * @param status A note on how the program finished, if abnormally
+     * @param points The marks for a matching output
+     * @return The marks and differences
+     */
+    private Outcome outcome(final String[] expected, final String actual,
+        final String status, final double points) {
+        final String[] lines = this.normalize(actual);
+        final Diff diff = new Diff(expected, lines, this::equal);
+        final int total = Math.max(expected.length, lines.length);
+        final double score = total == 0 ?
+            points : points * diff.matched() / total;
+        if (diff.identical() && status.isEmpty())
+            return new Outcome(points, "Output matches", actual);
+        return new Outcome(
+            Math.round(score * 100d) / 100d,
+            String.format(
+                "Output differs%s: %d of %d line(s) match%s\n%s",
+                status,
+                diff.matched(),
+                total,
+                diff.truncated() ? " (too many differences to align)" : "",
+                diff.hunks(Comparison.MAX_FEEDBACK_LINES)
+            ).trim(),
+            actual
+        );
+    }
+
+    /**
+     * Reads or computes the expected lines of the part or of a test case,
+     * the first time they are needed. Concurrent callers wait for the first
+     * one, so that each expected output is computed once; failures are not
+     * kept, so that a later caller tries again.
+     * @param test The test case, or null for the whole part
+     * @param timeout The timeout of the reference run
+     * @param unit The timeout unit
+     * @return The normalized expected lines
+     * @throws TimeoutException If the reference run times out
+     * @throws IOException If the expected output cannot be obtained
+     * @throws InterruptedException If interrupted while running
+     */
+    private String[] expected(final TestCase test, final long timeout,
+        final TimeUnit unit)
+        throws TimeoutException, IOException, InterruptedException {
+        while (true) {
+            FutureTask<String[]> task;
+            boolean owner = false;
+            synchronized (this) {
+                if (this.lines == null)
+                    this.lines = new IdentityHashMap<>();
+                task = this.lines.get(test);
+                if (task == null) {
+                    task = new FutureTask<>(
+                        () -> this.normalize(this.text(test, timeout, unit))
+                    );
+                    this.lines.put(test, task);
+                    owner = true;
+                }
+            }
+            if (owner)
+                task.run();
+            try {
+                return task.get();
+            } catch (ExecutionException e) {
+                synchronized (this) {
+                    this.lines.remove(test, task);
+                }
+                final Throwable cause = e.getCause();
+                // Another caller was interrupted: compute it again
+                if (cause instanceof InterruptedException && !owner)
+                    continue;
+                if (cause instanceof InterruptedException)
+                    throw (InterruptedException) cause;
+                if (cause instanceof TimeoutException)
+                    throw (TimeoutException) cause;
+                if (cause instanceof IOException)
+                    throw (IOException) cause;
+                throw new IOException(cause);
+            }
+        }
+    }
+
+    /**
+     * Reads or computes the expected output of the part or of a test case,
+     * generating the test case's input first if needed.
+     * @param test The test case, or null for the whole part
+     * @param timeout The timeout of the generator and reference runs
+     * @param unit The timeout unit
+     * @return The expected output
+     * @throws TimeoutException If a run times out
+     * @throws IOException If the expected output cannot be obtained
+     * @throws InterruptedException If interrupted while running
+     */
+    private String text(final TestCase test, final long timeout,
+        final TimeUnit unit)
+        throws TimeoutException, IOException, InterruptedException {
+        final File file = test == null ? this.expected : test.expected();
+        if (file != null) {
+            return new String(
+                Files.readAllBytes(file.toPath()),
+                StandardCharsets.UTF_8
+            );
+        }
+        if (this.reference == null) {
+            throw new IOException(
+                String.format(
+                    "No expected output for test case '%s'",
+                    test == null ? "" : test.name()
+                )
+            );
+        }
+        if (test != null && test.generated())
+            this.generate(test, timeout, unit);
+        final Command command = this.run(
+            this.reference,
+            test == null ? "" : test.args(),
+            test == null ? this.input : test.input(),
+            null,
+            timeout,
+            unit
+        );
+        if (command.result().exitCode() != 0) {
+            throw new IOException(
+                String.format(
+                    "The reference implementation returned a non-zero "
+                    + "code (%d)",
+                    command.result().exitCode()
+                )
+            );
+        }
+        return command.result().outputStream().toString();
+    }
+
+    /**
+     * Generates the input of a test case by running the generator with the
+     * test case's seed.
+     * @param test The test case
+     * @param timeout The timeout
+     * @param unit The timeout unit
+     * @throws TimeoutException If the generator times out
+     * @throws IOException If the generator fails
+     * @throws InterruptedException If interrupted while running
+     */
+    private void generate(final TestCase test, final long timeout,
+        final TimeUnit unit)
+        throws TimeoutException, IOException, InterruptedException {
+        test.input().deleteOnExit();
+        final Command command = new Command(
+            new String[] {
+                "sh",
+                "-c",
+                String.format("%s %d", this.generator, test.seed())
+            }
+        ).onDirectory(this.directory)
+         .writeTo(test.input())
+         .execute(timeout, unit);
+        if (command.result().exitCode() != 0) {
+            throw new IOException(
+                String.format(
+                    "The generator returned a non-zero code (%d) for seed %d",
+                    command.result().exitCode(),
+                    test.seed()
+                )
+            );
+        }
+    }
+
+    /**
+     * Runs the comparison command on a directory.
+     * @param directory The directory
+     * @param args The arguments to append to the command
+     * @param input The file to read the standard input from, or null
+     * @param cpus The CPU list to run the command on, or null
+     * @param timeout The timeout
+     * @param unit The timeout unit
+     * @return The executed command
+     * @throws TimeoutException If the command times out
+     * @throws IOException If the command cannot be started
+     * @throws InterruptedException If interrupted while running
+     */
+    private Command run(final File directory, final String args,
+        final File input, final String cpus, final long timeout,
+        final TimeUnit unit)
+        throws TimeoutException, IOException, InterruptedException {
+        final String line = String.format("%s %s", this.command, args);
+        return new Command(new String[] {"sh", "-c", line.trim()})
+            .onDirectory(directory)
+            .readFrom(input)
+            .pinTo(cpus)
+            .execute(timeout, unit);
+    }
+
+    /**
+     * Describes how a command finished, if abnormally.
+     * @param command The executed command
+     * @return The exit code note, or an empty string
+     */
+    private static String status(final Command command) {
+        if (command.result().exitCode() == 0)
+            return "";
+        return String.format(" (exit code %d)", command.result().exitCode());
+    }
+
+    /**
+     * Splits an output into lines, according to the whitespace mode.
+     * @param text The output
+     * @return The lines to compare
+     */
+    String[] normalize(final String text) {
+        final List<String> lines = new ArrayList<>();
+        final String[] split = text.split("\r?\n", -1);
+        // The final line break does not start a new line
+        final int count = text.endsWith("\n") ? split.length - 1 : split.length;
+        for (int i = 0; i < count; i++) {
+            switch (this.whitespace) {
+                case EXACT:
+                    lines.add(split[i]);
+                    break;
+                case TRAILING:
+                    lines.add(split[i].replaceAll("\\s+$", ""));
+                    break;
+                default:
+                    final String line =
+                        split[i].trim().replaceAll("\\s+", " ");
+                    if (!line.isEmpty())
+                        lines.add(line);
+                    break;
+            }
+        }
+        while (this.whitespace == Whitespace.TRAILING && !lines.isEmpty()
+            && lines.get(lines.size() - 1).isEmpty())
+            lines.remove(lines.size() - 1);
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    /**
+     * Whether an expected line matches an actual one, comparing numbers with
+     * the tolerance.
+     * @param expected The expected line
+     * @param actual The actual line
+     * @return Whether both lines match
+     */
+    boolean equal(final String expected, final String actual) {
+        if (expected.equals(actual))
+            return true;
+        if (this.tolerance <= 0d)
+            return false;
+        final String[] a = expected.trim().split("\\s+");
+        final String[] b = actual.trim().split("\\s+");
+        if (a.length != b.length)
+            return false;
+        for (int i = 0; i < a.length; i++) {
+            if (a[i].equals(b[i]))
+                continue;
+            if (!Comparison.NUMBER.matcher(a[i]).matches()
+                || !Comparison.NUMBER.matcher(b[i]).matches())
+                return false;
+            final double x = Double.parseDouble(a[i]);
+            final double y = Double.parseDouble(b[i]);
+            if (Math.abs(x - y) > this.tolerance * Math.max(1d, Math.abs(x)))
+                return false;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,203 @@
+/**
+ * Copyright 2017 University of Victoria
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package com.rigiresearch.gradebuddy.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Splits the cores the application may run on into disjoint CPU sets, one
+ * per concurrent marking task, so that tasks do not compete for the same
+ * cores and caches. Optionally, the first cores are reserved for the JVM.
+ * @author Miguel Jimenez (miguel@uvic.ca)
+ * @date 2017-11-09
+ * @version $Id$
+ * @since 0.0.1
+ */
+public final class CpuSets implements Serializable {
+
+    /**
+     * Serial version UID.
+     */
+    private static final long serialVersionUID = 2994361227404000427L;
+
+    /**
+     * The file listing the cores this process may run on.
+     */
+    private static final File STATUS = new File("/proc/self/status");
+
+    /**
+     * The cores reserved for the JVM.
+     */
+    private final List<Integer> reserved;
+
+    /**
+     * The CPU list (as understood by taskset) of the cores not reserved for
+     * the JVM.
+     */
+    private final String usable;
+
+    /**
+     * The CPU lists (as understood by taskset) of each set.
+     */
+    private final List<String> sets;
+
+    /**
+     * The number of tasks currently running on each set.
+     */
+    private final int[] leases;
+
+    /**
+     * Default constructor.
+     * @param slots The number of concurrent tasks
+     * @param reserved The number of cores to reserve for the JVM
+     */
+    public CpuSets(final int slots, final int reserved) {
+        final List<Integer> cores = CpuSets.allowed();
+        final int keep = reserved < cores.size() ? reserved : 0;
+        if (keep != reserved)
+            System.err.printf(
+                "Cannot reserve %d of %d core(s) for the JVM\n",
+                reserved,
+                cores.size()
+            );
+        this.reserved = new ArrayList<>(cores.subList(0, keep));
+        final List<Integer> usable = cores.subList(keep, cores.size());
+        this.usable = CpuSets.list(usable);
+        final int count = Math.max(1, Math.min(slots, usable.size()));
+        this.sets = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            // Contiguous ranges, so that a set shares as much cache as possible
+            this.sets.add(
+                CpuSets.list(
+                    usable.subList(
+                        i * usable.size() / count,
+                        (i + 1) * usable.size() / count
+                    )
+                )
+            );
+        }
+        this.leases = new int[count];
+    }
+
+    /**
+     * Pins every thread of the JVM to the reserved cores, if any, and the
+     * commands that are not pinned to a set to the remaining cores.
+     */
+    public void confineJvm() {
+        if (this.reserved.isEmpty())
+            return;
+        final String pid = ManagementFactory.getRuntimeMXBean()
+            .getName()
+            .split("@")[0];
+        try {
+            final Command command = new Command(
+                new String[] {
+                    "taskset", "-a", "-p", "-c", CpuSets.list(this.reserved), pid
+                }
+            ).execute();
+            if (command.result().exitCode() != 0)
+                System.err.println(command.result().errorStream().toString());
+            else
+                Command.pinUnpinnedTo(this.usable);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Leases the least used CPU set.
+     * @return The index of the set
+     */
+    public synchronized int acquire() {
+        int index = 0;
+        for (int i = 1; i < this.leases.length; i++) {
+            if (this.leases[i] < this.leases[index])
+                index = i;
+        }
+        this.leases[index]++;
+        return index;
+    }
+
+    /**
+     * Returns a leased CPU set.
+     * @param index The index of the set
+     */
+    public synchronized void release(final int index) {
+        this.leases[index]--;
+    }
+
+    /**
+     * The CPU list of a set.
+     * @param index The index of the set
+     * @return The CPU list, as understood by taskset
+     */
+    public String cpus(final int index) {
+        return this.sets.get(index);
+    }
+
+    /**
+     * Determines the cores this process may run on.
+     * @return The core identifiers
+     */
+    private static List<Integer> allowed() {
+        final List<Integer> cores = new ArrayList<>();
+        try {
+            for (String line : Files.readAllLines(CpuSets.STATUS.toPath())) {
+                if (!line.startsWith("Cpus_allowed_list:"))
+                    continue;
+                final String list = line.substring(line.indexOf(':') + 1);
+                for (String range : list.trim().split(",")) {
+                    final String[] bounds = range.split("-");
+                    final int last = Integer.parseInt(bounds[bounds.length - 1]);
+                    for (int i = Integer.parseInt(bounds[0]); i <= last; i++)
+                        cores.add(i);
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            cores.clear();
+        }
+        if (cores.isEmpty()) {
+            for (int i = 0; i < Runtime.getRuntime().availableProcessors(); i++)
+                cores.add(i);
+        }
+        return cores;
+    }
+
+    /**
+     * Formats a list of cores.
+     * @param cores The core identifiers
+     * @return A comma-separated CPU list
+     */
+    private static String list(final List<Integer> cores) {
+        return cores.stream()
+            .map(String::valueOf)
+            .collect(Collectors.joining(","));
+    }
+
+}
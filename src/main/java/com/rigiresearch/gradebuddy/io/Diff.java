@@ -0,0 +1,284 @@
+/**
+ * Copyright 2017 University of Victoria
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package com.rigiresearch.gradebuddy.io;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiPredicate;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+/**
+ * Line-based differences between two texts, computed with Myers' algorithm
+ * in linear space: the middle snake of the edit graph is found by searching
+ * from both ends at once, and both halves are then solved recursively.
+ * @author Miguel Jimenez (miguel@uvic.ca)
+ * @date 2017-11-14
+ * @version $Id$
+ * @since 0.0.1
+ */
+@Accessors(fluent = true)
+public final class Diff {
+
+    /**
+     * Number of differences after which the search gives up, since its
+     * cost grows with the number of lines times the number of differences.
+     */
+    private static final int MAX_DIFFERENCES = 1000;
+
+    /**
+     * The expected lines.
+     */
+    private final String[] expected;
+
+    /**
+     * The actual lines.
+     */
+    private final String[] actual;
+
+    /**
+     * Whether an expected line matches an actual one.
+     */
+    private final BiPredicate<String, String> equal;
+
+    /**
+     * Whether each expected line is matched.
+     */
+    private final boolean[] kept;
+
+    /**
+     * Whether each actual line is matched.
+     */
+    private final boolean[] found;
+
+    /**
+     * The number of matched lines.
+     */
+    @Getter
+    private int matched;
+
+    /**
+     * Whether there were too many differences to find them all. In that
+     * case only the common prefix and suffix are matched.
+     */
+    @Getter
+    private boolean truncated;
+
+    /**
+     * Default constructor.
+     * @param expected The expected lines
+     * @param actual The actual lines
+     * @param equal Whether an expected line matches an actual one
+     */
+    public Diff(final String[] expected, final String[] actual,
+        final BiPredicate<String, String> equal) {
+        this.expected = expected;
+        this.actual = actual;
+        this.equal = equal;
+        this.kept = new boolean[expected.length];
+        this.found = new boolean[actual.length];
+        try {
+            this.diff(0, expected.length, 0, actual.length);
+        } catch (IllegalStateException e) {
+            this.truncated = true;
+            this.matchEnds();
+        }
+    }
+
+    /**
+     * Whether both texts match.
+     * @return Whether every line matches
+     */
+    public boolean identical() {
+        return this.matched == this.expected.length
+            && this.matched == this.actual.length;
+    }
+
+    /**
+     * The differences, as the hunks of a unified diff without context.
+     * @param limit The maximum number of changed lines to include
+     * @return The differences
+     */
+    public String hunks(final int limit) {
+        final StringBuilder builder = new StringBuilder();
+        int shown = 0;
+        int changed = 0;
+        int i = 0;
+        int j = 0;
+        while (i < this.expected.length || j < this.actual.length) {
+            if (i < this.expected.length && j < this.actual.length
+                && this.kept[i] && this.found[j]) {
+                i++;
+                j++;
+                continue;
+            }
+            final int start = i;
+            final int end = j;
+            final List<String> lines = new ArrayList<>();
+            while (i < this.expected.length && !this.kept[i])
+                lines.add("-" + this.expected[i++]);
+            while (j < this.actual.length && !this.found[j])
+                lines.add("+" + this.actual[j++]);
+            changed += lines.size();
+            if (shown >= limit)
+                continue;
+            builder.append(
+                String.format(
+                    "@@ -%d,%d +%d,%d @@\n",
+                    start + 1,
+                    i - start,
+                    end + 1,
+                    j - end
+                )
+            );
+            for (String line : lines) {
+                if (shown < limit) {
+                    builder.append(line).append('\n');
+                    shown++;
+                }
+            }
+        }
+        if (changed > shown)
+            builder.append(
+                String.format("... %d more line(s)\n", changed - shown)
+            );
+        return builder.toString();
+    }
+
+    /**
+     * Matches the lines of two ranges.
+     * @param aStart The first expected line
+     * @param aEnd The line after the last expected one
+     * @param bStart The first actual line
+     * @param bEnd The line after the last actual one
+     */
+    private void diff(int aStart, int aEnd, int bStart, int bEnd) {
+        while (aStart < aEnd && bStart < bEnd
+            && this.equal.test(this.expected[aStart], this.actual[bStart]))
+            this.match(aStart++, bStart++);
+        while (aStart < aEnd && bStart < bEnd
+            && this.equal.test(this.expected[aEnd - 1], this.actual[bEnd - 1]))
+            this.match(--aEnd, --bEnd);
+        if (aStart == aEnd || bStart == bEnd)
+            return;
+        final int[] snake = this.middleSnake(aStart, aEnd, bStart, bEnd);
+        this.diff(aStart, aStart + snake[0], bStart, bStart + snake[1]);
+        for (int x = snake[0], y = snake[1]; x < snake[2]; x++, y++)
+            this.match(aStart + x, bStart + y);
+        this.diff(aStart + snake[2], aEnd, bStart + snake[3], bEnd);
+    }
+
+    /**
+     * Finds the middle snake of the edit graph of two ranges, whose first
+     * and last lines differ.
+     * @param aStart The first expected line
+     * @param aEnd The line after the last expected one
+     * @param bStart The first actual line
+     * @param bEnd The line after the last actual one
+     * @return The start and end points of the snake (x, y, u, v), relative
+     *  to the start of the ranges
+     */
+    private int[] middleSnake(final int aStart, final int aEnd,
+        final int bStart, final int bEnd) {
+        final int n = aEnd - aStart;
+        final int m = bEnd - bStart;
+        final int delta = n - m;
+        final boolean odd = (delta & 1) != 0;
+        final int max = Math.min((n + m + 1) / 2, Diff.MAX_DIFFERENCES);
+        final int offset = max + 1;
+        // Furthest x reached on each diagonal, forwards and backwards
+        final int[] forward = new int[2 * max + 3];
+        final int[] backward = new int[2 * max + 3];
+        for (int d = 0; d <= max; d++) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || k != d
+                    && forward[offset + k - 1] < forward[offset + k + 1] ?
+                    forward[offset + k + 1] : forward[offset + k - 1] + 1;
+                int y = x - k;
+                final int x0 = x;
+                final int y0 = y;
+                while (x < n && y < m && this.equal.test(
+                    this.expected[aStart + x], this.actual[bStart + y])) {
+                    x++;
+                    y++;
+                }
+                forward[offset + k] = x;
+                final int c = delta - k;
+                if (odd && c >= -(d - 1) && c <= d - 1
+                    && x + backward[offset + c] >= n)
+                    return new int[] {x0, y0, x, y};
+            }
+            for (int c = -d; c <= d; c += 2) {
+                int x = c == -d || c != d
+                    && backward[offset + c - 1] < backward[offset + c + 1] ?
+                    backward[offset + c + 1] : backward[offset + c - 1] + 1;
+                int y = x - c;
+                final int x0 = x;
+                final int y0 = y;
+                while (x < n && y < m && this.equal.test(
+                    this.expected[aEnd - x - 1], this.actual[bEnd - y - 1])) {
+                    x++;
+                    y++;
+                }
+                backward[offset + c] = x;
+                final int k = delta - c;
+                if (!odd && k >= -d && k <= d
+                    && x + forward[offset + k] >= n)
+                    return new int[] {n - x, m - y, n - x0, m - y0};
+            }
+        }
+        throw new IllegalStateException("Too many differences");
+    }
+
+    /**
+     * Matches the common prefix and suffix of both texts only.
+     */
+    private void matchEnds() {
+        Arrays.fill(this.kept, false);
+        Arrays.fill(this.found, false);
+        this.matched = 0;
+        int i = 0;
+        while (i < this.expected.length && i < this.actual.length
+            && this.equal.test(this.expected[i], this.actual[i])) {
+            this.match(i, i);
+            i++;
+        }
+        int a = this.expected.length;
+        int b = this.actual.length;
+        while (a > i && b > i
+            && this.equal.test(this.expected[a - 1], this.actual[b - 1]))
+            this.match(--a, --b);
+    }
+
+    /**
+     * Records a matched line.
+     * @param a The expected line
+     * @param b The actual line
+     */
+    private void match(final int a, final int b) {
+        this.kept[a] = true;
+        this.found[b] = true;
+        this.matched++;
+    }
+
+}
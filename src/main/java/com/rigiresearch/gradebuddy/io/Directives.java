@@ -0,0 +1,195 @@
+/**
+ * Copyright 2017 University of Victoria
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package com.rigiresearch.gradebuddy.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+/**
+ * Settings declared by a marking script through comment lines of the form
+ * {@code # gradebuddy: key=value key="quoted value"}.
+ * @author Miguel Jimenez (miguel@uvic.ca)
+ * @date 2017-11-03
+ * @version $Id$
+ * @since 0.0.1
+ */
+@Accessors(fluent = true)
+@Getter
+public final class Directives implements Serializable {
+
+    /**
+     * Serial version UID.
+     */
+    private static final long serialVersionUID = -2207391183958163771L;
+
+    /**
+     * The comment prefix identifying a directive line.
+     */
+    private static final String PREFIX = "# gradebuddy:";
+
+    /**
+     * A key=value pair, where the value may be double-quoted.
+     */
+    private static final Pattern PAIR = Pattern.compile(
+        "([\\w.-]+)=(?:\"([^\"]*)\"|(\\S+))"
+    );
+
+    /**
+     * The script declaring the directives.
+     */
+    private final File script;
+
+    /**
+     * The declared values.
+     */
+    private final Map<String, String> values;
+
+    /**
+     * Default constructor.
+     * @param script The marking script
+     * @throws IOException If the script cannot be read
+     */
+    public Directives(final File script) throws IOException {
+        this.script = script;
+        this.values = new HashMap<>();
+        for (String line : Files.readAllLines(script.toPath())) {
+            final String trimmed = line.trim();
+            if (!trimmed.startsWith(Directives.PREFIX))
+                continue;
+            this.values.putAll(
+                Directives.pairs(trimmed.substring(Directives.PREFIX.length()))
+            );
+        }
+    }
+
+    /**
+     * Parses the key=value pairs of a line.
+     * @param line The line
+     * @return The values, by key
+     */
+    public static Map<String, String> pairs(final String line) {
+        final Map<String, String> values = new HashMap<>();
+        final Matcher matcher = Directives.PAIR.matcher(line);
+        while (matcher.find()) {
+            values.put(
+                matcher.group(1),
+                matcher.group(2) == null ? matcher.group(3) : matcher.group(2)
+            );
+        }
+        return values;
+    }
+
+    /**
+     * Returns a declared value.
+     * @param key The directive name
+     * @param value The value to use if the directive is not declared
+     * @return The declared value or the default one
+     */
+    public String value(final String key, final String value) {
+        return this.values.getOrDefault(key, value);
+    }
+
+    /**
+     * Returns a declared integer value.
+     * @param key The directive name
+     * @param value The value to use if the directive is not declared
+     * @return The declared value or the default one
+     * @throws IOException If the declared value is not an integer
+     */
+    public int integer(final String key, final int value)
+        throws IOException {
+        if (!this.values.containsKey(key))
+            return value;
+        try {
+            return Integer.parseInt(this.values.get(key));
+        } catch (NumberFormatException e) {
+            throw this.invalid(key);
+        }
+    }
+
+    /**
+     * Returns a declared decimal value.
+     * @param key The directive name
+     * @param value The value to use if the directive is not declared
+     * @return The declared value or the default one
+     * @throws IOException If the declared value is not a number
+     */
+    public double decimal(final String key, final double value)
+        throws IOException {
+        if (!this.values.containsKey(key))
+            return value;
+        try {
+            return Double.parseDouble(this.values.get(key));
+        } catch (NumberFormatException e) {
+            throw this.invalid(key);
+        }
+    }
+
+    /**
+     * Returns a declared file, relative to the script's directory unless it
+     * is absolute.
+     * @param key The directive name
+     * @return The declared file, or null if the directive is not declared
+     */
+    public File file(final String key) {
+        final String path = this.values.get(key);
+        if (path == null)
+            return null;
+        if (new File(path).isAbsolute())
+            return new File(path);
+        return new File(this.script.getAbsoluteFile().getParentFile(), path);
+    }
+
+    /**
+     * Reports a declared value of the wrong type.
+     * @param key The directive name
+     * @return The error naming the script and the value
+     */
+    private IOException invalid(final String key) {
+        return new IOException(
+            String.format(
+                "%s declares an invalid value '%s' for %s",
+                this.script,
+                this.values.get(key),
+                key
+            )
+        );
+    }
+
+    /**
+     * Whether a directive was declared.
+     * @param key The directive name
+     * @return Whether the script declares the directive
+     */
+    public boolean declares(final String key) {
+        return this.values.containsKey(key);
+    }
+
+}
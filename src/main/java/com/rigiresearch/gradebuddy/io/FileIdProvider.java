@@ -21,11 +21,9 @@
  */
 package com.rigiresearch.gradebuddy.io;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import org.zeroturnaround.exec.ProcessExecutor;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.Accessors;
@@ -66,22 +64,18 @@ public final class FileIdProvider {
     public String studentId() throws Exception {
         String identifier = "";
         try {
-            final ByteArrayOutputStream output = new ByteArrayOutputStream();
-            final ByteArrayOutputStream errOutput = new ByteArrayOutputStream();
-            final int exitCode = new ProcessExecutor()
-                .environment(System.getenv())
-                .directory(this.script.getParentFile())
-                .command("sh", this.script.getName(), directory.getAbsolutePath())
-                .timeout(60, TimeUnit.SECONDS)
-                .redirectOutput(output)
-                .redirectError(errOutput)
-                .readOutput(true)
-                .execute()
-                .getExitValue();
+            final Command command = new Command(
+                new String[] {
+                    "sh",
+                    this.script.getName(),
+                    directory.getAbsolutePath()
+                }
+            ).onDirectory(this.script.getParentFile())
+             .execute(60, TimeUnit.SECONDS);
             identifier = this.handleOutput(
-                exitCode,
-                output.toString(),
-                errOutput.toString()
+                command.result().exitCode(),
+                command.result().outputStream().toString(),
+                command.result().errorStream().toString()
             );
         } catch (TimeoutException e) {
             throw new Exception(
@@ -26,8 +26,9 @@ import java.io.File;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import lombok.AllArgsConstructor;
 import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 import lombok.experimental.Accessors;
 
 /**
@@ -38,7 +39,7 @@ import lombok.experimental.Accessors;
  * @since 0.0.1
  */
 @Accessors(fluent = true)
-@AllArgsConstructor
+@RequiredArgsConstructor
 @Getter
 public final class FileSubmissionProvider {
 
@@ -58,11 +59,18 @@ public final class FileSubmissionProvider {
     private final File namingScript;
 
     /**
-     * Lists the submission directories as {@link Submission} instances.
+     * Finds the submissions with similar source code, or null.
+     */
+    @Setter
+    private SimilarityDetector similarity;
+
+    /**
+     * Lists the submission directories as {@link Submission} instances,
+     * finding the similar ones if requested.
      * @return an iterable of submissions.
      */
     public List<Submission> submissions() {
-        return Stream.of(this.directories())
+        final List<Submission> submissions = Stream.of(this.directories())
             .map(directory -> {
                 final Submission submission = new Submission(directory);
                 try {
@@ -79,6 +87,9 @@ public final class FileSubmissionProvider {
                 return submission;
             })
             .collect(Collectors.toList());
+        if (this.similarity != null)
+            this.similarity.detect(submissions);
+        return submissions;
     }
 
     /**
@@ -0,0 +1,210 @@
+/**
+ * Copyright 2017 University of Victoria
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package com.rigiresearch.gradebuddy.io;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Forecasts the duration of a marking run from the durations observed so far
+ * for each marking script.
+ * @author Miguel Jimenez (miguel@uvic.ca)
+ * @date 2017-11-06
+ * @version $Id$
+ * @since 0.0.1
+ */
+public final class Forecast {
+
+    /**
+     * Observed durations (in milliseconds) per marking script.
+     */
+    private final List<List<Long>> durations;
+
+    /**
+     * Sum of the observed durations per marking script.
+     */
+    private final double[] totals;
+
+    /**
+     * The maximum number of concurrent tasks per marking script, or 0 if it
+     * is not limited.
+     */
+    private final int[] concurrency;
+
+    /**
+     * Default constructor.
+     * @param classes The resource class of each marking script
+     */
+    public Forecast(final List<ResourceClass> classes) {
+        this.durations = new ArrayList<>();
+        for (int i = 0; i < classes.size(); i++)
+            this.durations.add(new ArrayList<>());
+        this.totals = new double[classes.size()];
+        this.concurrency = new int[classes.size()];
+        for (int i = 0; i < classes.size(); i++)
+            this.concurrency[i] = classes.get(i).concurrency();
+    }
+
+    /**
+     * Records the duration of a finished task.
+     * @param part The index of the marking script
+     * @param millis The task duration in milliseconds
+     */
+    public synchronized void record(final int part, final long millis) {
+        this.durations.get(part).add(millis);
+        this.totals[part] += millis;
+    }
+
+    /**
+     * Estimates the time needed to finish the pending tasks. The tasks of a
+     * script with a concurrency cap share fewer threads.
+     * @param pending The number of pending tasks per marking script
+     * @param threads The thread-pool size
+     * @return The estimated time in milliseconds, or -1 if there are no
+     *  observations yet
+     */
+    public synchronized long remaining(final int[] pending,
+        final int threads) {
+        final double fallback = this.overallMean();
+        if (fallback < 0)
+            return -1L;
+        double time = 0d;
+        for (int i = 0; i < pending.length; i++) {
+            final double mean = this.mean(i);
+            time += pending[i] * (mean < 0 ? fallback : mean)
+                / this.parallelism(i, threads);
+        }
+        return Math.round(time);
+    }
+
+    /**
+     * Describes the observed durations and projects the wall-clock time of
+     * marking a number of submissions.
+     * @param submissions The number of submissions to mark
+     * @param threads The thread-pool size
+     * @return A human-readable projection
+     */
+    public synchronized String projection(final int submissions,
+        final int threads) {
+        final StringBuilder builder = new StringBuilder();
+        double mean = 0d;
+        double p90 = 0d;
+        for (int i = 0; i < this.durations.size(); i++) {
+            final List<Long> samples = this.durations.get(i);
+            if (samples.isEmpty())
+                continue;
+            mean += this.mean(i) / this.parallelism(i, threads);
+            p90 += (double) Forecast.percentile(samples, 0.9)
+                / this.parallelism(i, threads);
+            builder.append(
+                String.format(
+                    "P%d: %d sample(s), mean %s, median %s, p90 %s\n",
+                    i + 1,
+                    samples.size(),
+                    Forecast.format(Math.round(this.mean(i))),
+                    Forecast.format(Forecast.percentile(samples, 0.5)),
+                    Forecast.format(Forecast.percentile(samples, 0.9))
+                )
+            );
+        }
+        builder.append(
+            String.format(
+                "Projected time for %d submission(s) using %d thread(s): %s"
+                + " (up to %s)\n",
+                submissions,
+                threads,
+                Forecast.format(Math.round(submissions * mean)),
+                Forecast.format(Math.round(submissions * p90))
+            )
+        );
+        return builder.toString();
+    }
+
+    /**
+     * Formats a duration.
+     * @param millis The duration in milliseconds
+     * @return The duration as h:mm:ss
+     */
+    public static String format(final long millis) {
+        if (millis < 0)
+            return "?";
+        final long seconds = millis / 1000L;
+        return String.format(
+            "%d:%02d:%02d",
+            seconds / 3600L,
+            seconds / 60L % 60L,
+            seconds % 60L
+        );
+    }
+
+    /**
+     * The number of tasks of a marking script that may run at once.
+     * @param part The index of the marking script
+     * @param threads The thread-pool size
+     * @return The thread-pool size, capped by the script's concurrency
+     */
+    private int parallelism(final int part, final int threads) {
+        final int cap = this.concurrency[part];
+        return Math.max(1, cap > 0 ? Math.min(threads, cap) : threads);
+    }
+
+    /**
+     * The mean duration of a marking script.
+     * @param part The index of the marking script
+     * @return The mean duration, or -1 if there are no observations
+     */
+    private double mean(final int part) {
+        final int count = this.durations.get(part).size();
+        return count == 0 ? -1d : this.totals[part] / count;
+    }
+
+    /**
+     * The mean duration of all the marking scripts.
+     * @return The mean duration, or -1 if there are no observations
+     */
+    private double overallMean() {
+        double sum = 0d;
+        int count = 0;
+        for (int i = 0; i < this.totals.length; i++) {
+            sum += this.totals[i];
+            count += this.durations.get(i).size();
+        }
+        return count == 0 ? -1d : sum / count;
+    }
+
+    /**
+     * Computes a percentile of a list of durations.
+     * @param samples The durations
+     * @param rank The percentile rank, between 0 and 1
+     * @return The duration at the given rank
+     */
+    private static long percentile(final List<Long> samples,
+        final double rank) {
+        final List<Long> sorted = new ArrayList<>(samples);
+        Collections.sort(sorted);
+        return sorted.get(
+            Math.min(sorted.size() - 1, (int) (rank * sorted.size()))
+        );
+    }
+
+}
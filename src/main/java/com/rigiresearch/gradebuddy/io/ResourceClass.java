@@ -0,0 +1,84 @@
+/**
+ * Copyright 2017 University of Victoria
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package com.rigiresearch.gradebuddy.io;
+
+import java.io.IOException;
+import java.io.Serializable;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+/**
+ * The resources a marking script needs, and how urgently its tasks should
+ * run, as declared by the script itself:
+ * {@code # gradebuddy: concurrency=4 memory=2048 cpu=2 priority=1}.
+ * @author Miguel Jimenez (miguel@uvic.ca)
+ * @date 2017-11-03
+ * @version $Id$
+ * @since 0.0.1
+ */
+@Accessors(fluent = true)
+@AllArgsConstructor
+@Getter
+public final class ResourceClass implements Serializable {
+
+    /**
+     * Serial version UID.
+     */
+    private static final long serialVersionUID = 8101386431262683129L;
+
+    /**
+     * Maximum number of tasks of this class running at once (0 means no
+     * limit other than the thread-pool size).
+     */
+    private final int concurrency;
+
+    /**
+     * Memory (in MiB) each task is expected to use (0 means unknown).
+     */
+    private final long memory;
+
+    /**
+     * Number of thread-pool slots each task occupies.
+     */
+    private final int cpu;
+
+    /**
+     * Tasks of classes with a higher priority are admitted first.
+     */
+    private final int priority;
+
+    /**
+     * Creates a resource class from the directives of a marking script.
+     * @param directives The script directives
+     * @throws IOException If a directive has an invalid value
+     */
+    public ResourceClass(final Directives directives) throws IOException {
+        this(
+            directives.integer("concurrency", 0),
+            directives.integer("memory", 0),
+            Math.max(1, directives.integer("cpu", 1)),
+            directives.integer("priority", 0)
+        );
+    }
+
+}
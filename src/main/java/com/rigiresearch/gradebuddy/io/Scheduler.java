@@ -0,0 +1,755 @@
+/**
+ * Copyright 2017 University of Victoria
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package com.rigiresearch.gradebuddy.io;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+
+/**
+ * Runs marking tasks on a fixed number of thread-pool slots, admitting each
+ * task only when its {@link ResourceClass} budget allows it. Tasks are
+ * admitted by decreasing priority, and in submission order among tasks of
+ * the same priority. Once the queue
+ * is drained, idle slots may run a speculative copy of tasks running much
+ * longer than the median of their resource class; the first copy to finish
+ * wins and the other one is interrupted.
+ * @author Miguel Jimenez (miguel@uvic.ca)
+ * @date 2017-11-03
+ * @version $Id$
+ * @since 0.0.1
+ */
+public final class Scheduler {
+
+    /**
+     * The work done by a task.
+     */
+    public interface Body {
+
+        /**
+         * Does the work, without publishing its outcome.
+         * @param speculative Whether this is a speculative copy of a task
+         *  that is already running
+         * @return An action publishing the outcome; it is run only for the
+         *  first copy of the task to finish
+         * @throws Exception If the work cannot be done
+         */
+        Runnable run(boolean speculative) throws Exception;
+    }
+
+    /**
+     * A unit of work.
+     */
+    @Accessors(fluent = true)
+    @RequiredArgsConstructor
+    @Getter
+    @Setter
+    public static final class Task {
+
+        /**
+         * The resources this task needs.
+         */
+        private final ResourceClass resources;
+
+        /**
+         * The work to do.
+         */
+        private final Body body;
+
+        /**
+         * The object this task works on (e.g., a submission), used to find
+         * the tasks to prioritize.
+         */
+        private Object owner;
+
+        /**
+         * Tasks with a higher priority are admitted first.
+         */
+        private int priority;
+
+        /**
+         * Whether a speculative copy of this task may run.
+         */
+        private boolean speculable = true;
+
+        /**
+         * Action run if the task is dropped without an outcome, i.e., if it
+         * is cancelled or fails, or null.
+         */
+        private Runnable discard;
+
+        /**
+         * Number of copies of this task currently running.
+         */
+        @Setter(AccessLevel.NONE)
+        private int copies;
+
+        /**
+         * Whether a copy of this task has finished.
+         */
+        @Setter(AccessLevel.NONE)
+        private boolean finished;
+    }
+
+    /**
+     * A running copy of a task.
+     */
+    @RequiredArgsConstructor
+    private static final class Attempt {
+
+        /**
+         * The task.
+         */
+        private final Task task;
+
+        /**
+         * The worker thread running this copy.
+         */
+        private final Thread thread;
+
+        /**
+         * Whether this is a speculative copy.
+         */
+        private final boolean speculative;
+
+        /**
+         * When this copy started (in nanoseconds).
+         */
+        private final long start = System.nanoTime();
+    }
+
+    /**
+     * Source of the available system memory.
+     */
+    private static final Path MEMINFO = Paths.get("/proc/meminfo");
+
+    /**
+     * How often blocked workers re-check the available memory and running
+     * tasks (in milliseconds).
+     */
+    private static final long POLL = 500L;
+
+    /**
+     * How many times longer than the median a task must be running before
+     * it is considered a straggler.
+     */
+    private static final double STRAGGLER_FACTOR = 2.0;
+
+    /**
+     * Minimum number of finished tasks of a resource class needed to
+     * estimate its median duration.
+     */
+    private static final int MIN_SAMPLES = 3;
+
+    /**
+     * The number of worker threads, i.e., the maximum number of slots.
+     */
+    private final int capacity;
+
+    /**
+     * The number of slots currently in use by the scheduler.
+     */
+    private int limit;
+
+    /**
+     * Guards the scheduler state.
+     */
+    private final Lock lock = new ReentrantLock();
+
+    /**
+     * Signals that a task was queued or finished.
+     */
+    private final Condition changed = this.lock.newCondition();
+
+    /**
+     * Tasks waiting to be admitted, in submission order.
+     */
+    private final List<Task> queue = new LinkedList<>();
+
+    /**
+     * Number of running tasks per resource class.
+     */
+    private final Map<ResourceClass, Integer> running =
+        new IdentityHashMap<>();
+
+    /**
+     * The worker threads.
+     */
+    private final List<Thread> workers = new ArrayList<>();
+
+    /**
+     * The running task copies.
+     */
+    private final List<Attempt> attempts = new ArrayList<>();
+
+    /**
+     * Durations (in nanoseconds) of finished tasks per resource class.
+     */
+    private final Map<ResourceClass, List<Long>> durations =
+        new IdentityHashMap<>();
+
+    /**
+     * Slots occupied by running tasks.
+     */
+    private int occupied;
+
+    /**
+     * Memory (in MiB) reserved by running tasks.
+     */
+    private long reserved;
+
+    /**
+     * Memory (in MiB) that running tasks may reserve in total: the memory
+     * available the last time no memory was reserved.
+     */
+    private long budget = Long.MAX_VALUE;
+
+    /**
+     * Tasks submitted but not finished yet.
+     */
+    private int pending;
+
+    /**
+     * Whether the workers should stop once the queue is empty.
+     */
+    private boolean shutdown;
+
+    /**
+     * Whether stragglers are speculatively re-executed.
+     */
+    private boolean speculative;
+
+    /**
+     * Whether the tasks were cancelled.
+     */
+    private boolean cancelled;
+
+    /**
+     * Default constructor.
+     * @param slots The thread-pool size
+     */
+    public Scheduler(final int slots) {
+        this(slots, slots);
+    }
+
+    /**
+     * Creates a scheduler whose number of slots can be changed while it runs.
+     * @param capacity The maximum thread-pool size
+     * @param limit The initial thread-pool size
+     */
+    public Scheduler(final int capacity, final int limit) {
+        this.capacity = Math.max(1, capacity);
+        this.limit = Math.min(Math.max(1, limit), this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            final Thread worker = new Thread(this::work, "marking-" + i);
+            worker.setDaemon(true);
+            this.workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Queues a task.
+     * @param task The task to run
+     */
+    public void submit(final Task task) {
+        this.lock.lock();
+        try {
+            this.pending++;
+            if (this.cancelled) {
+                task.finished = true;
+            } else {
+                this.enqueue(task);
+                this.changed.signalAll();
+                return;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        this.discard(Collections.singletonList(task));
+    }
+
+    /**
+     * The maximum thread-pool size.
+     * @return The number of worker threads
+     */
+    public int capacity() {
+        return this.capacity;
+    }
+
+    /**
+     * The current thread-pool size.
+     * @return The number of usable slots
+     */
+    public int limit() {
+        this.lock.lock();
+        try {
+            return this.limit;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Changes the thread-pool size. Running tasks are not interrupted; new
+     * tasks are admitted only once the occupied slots fit the new size.
+     * @param limit The new thread-pool size
+     */
+    public void limit(final int limit) {
+        this.lock.lock();
+        try {
+            this.limit = Math.min(Math.max(1, limit), this.capacity);
+            this.changed.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Enables or disables speculative re-execution of stragglers.
+     * @param speculative Whether to re-execute stragglers
+     * @return This scheduler
+     */
+    public Scheduler speculative(final boolean speculative) {
+        this.lock.lock();
+        try {
+            this.speculative = speculative;
+            return this;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until every submitted task has finished.
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public void await() throws InterruptedException {
+        this.lock.lock();
+        try {
+            while (this.pending > 0)
+                this.changed.await();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Raises the priority of the queued tasks of an owner, so that they are
+     * admitted before the rest.
+     * @param owner The object the tasks work on
+     * @param priority The new priority; tasks already having a higher
+     *  priority keep it
+     */
+    public void prioritize(final Object owner, final int priority) {
+        this.lock.lock();
+        try {
+            final List<Task> boosted = new ArrayList<>();
+            final Iterator<Task> iterator = this.queue.iterator();
+            while (iterator.hasNext()) {
+                final Task task = iterator.next();
+                if (task.owner == owner && task.priority < priority) {
+                    iterator.remove();
+                    task.priority = priority;
+                    boosted.add(task);
+                }
+            }
+            boosted.forEach(this::enqueue);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Whether this scheduler was shut down and has no tasks left.
+     * @return Whether the scheduler finished
+     */
+    public boolean finished() {
+        this.lock.lock();
+        try {
+            return this.shutdown && this.pending == 0;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Discards the queued tasks and interrupts the running ones. Tasks
+     * submitted afterwards are discarded as well.
+     */
+    public void cancel() {
+        final List<Task> discarded;
+        this.lock.lock();
+        try {
+            this.cancelled = true;
+            for (Task task : this.queue)
+                task.finished = true;
+            discarded = new ArrayList<>(this.queue);
+            this.queue.clear();
+            for (Attempt attempt : this.attempts)
+                attempt.thread.interrupt();
+        } finally {
+            this.lock.unlock();
+        }
+        this.discard(discarded);
+    }
+
+    /**
+     * Stops the workers once the submitted tasks have finished.
+     */
+    public void shutdown() {
+        this.lock.lock();
+        try {
+            this.shutdown = true;
+            this.changed.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Worker loop: takes the first admissible task (or a straggler) and runs
+     * it.
+     */
+    private void work() {
+        while (true) {
+            final Attempt attempt;
+            this.lock.lock();
+            try {
+                Attempt next = this.next();
+                while (next == null) {
+                    // Running tasks may still submit new ones
+                    if (this.shutdown && this.pending == 0)
+                        return;
+                    if (this.queue.isEmpty()
+                        && !(this.speculative && !this.attempts.isEmpty()))
+                        this.changed.await();
+                    else
+                        this.changed.await(
+                            Scheduler.POLL,
+                            TimeUnit.MILLISECONDS
+                        );
+                    next = this.next();
+                }
+                attempt = next;
+                this.acquire(attempt.task.resources());
+                this.attempts.add(attempt);
+                attempt.task.copies++;
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                this.lock.unlock();
+            }
+            Runnable publish = null;
+            try {
+                publish = attempt.task.body().run(attempt.speculative);
+            } catch (InterruptedException e) {
+                // Another copy of the task finished first
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            final Runnable outcome = this.finish(attempt, publish);
+            if (outcome != null) {
+                try {
+                    outcome.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                } finally {
+                    this.lock.lock();
+                    try {
+                        this.pending--;
+                        this.changed.signalAll();
+                    } finally {
+                        this.lock.unlock();
+                    }
+                }
+            }
+            // Clear any interruption caused by another copy finishing first
+            Thread.interrupted();
+        }
+    }
+
+    /**
+     * Runs the discard actions of dropped tasks, and then counts them as
+     * finished. The caller must not hold the lock.
+     * @param tasks The dropped tasks
+     */
+    private void discard(final List<Task> tasks) {
+        for (Task task : tasks) {
+            try {
+                if (task.discard != null)
+                    task.discard.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        this.lock.lock();
+        try {
+            this.pending -= tasks.size();
+            this.changed.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Releases a finished task copy and decides whether it won.
+     * @param attempt The finished copy
+     * @param publish The outcome of the copy, or null if it has none
+     * @return The action the caller must run before counting the task as
+     *  finished: the outcome if this copy won, or the discard action if it
+     *  was the last copy and none succeeded; null otherwise
+     */
+    private Runnable finish(final Attempt attempt, final Runnable publish) {
+        this.lock.lock();
+        try {
+            final Task task = attempt.task;
+            this.attempts.remove(attempt);
+            this.release(task.resources());
+            task.copies--;
+            this.changed.signalAll();
+            if (task.finished)
+                return null;
+            if (publish != null) {
+                task.finished = true;
+                this.durations
+                    .computeIfAbsent(task.resources(), k -> new ArrayList<>())
+                    .add(System.nanoTime() - attempt.start);
+                for (Attempt other : this.attempts) {
+                    if (other.task == task)
+                        other.thread.interrupt();
+                }
+                return publish;
+            }
+            if (task.copies == 0) {
+                task.finished = true;
+                return task.discard == null ? () -> { } : task.discard;
+            }
+            return null;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Selects the next task copy to run: the first admissible queued task or,
+     * once the queue is drained, a straggler. The caller must hold the lock.
+     * @return The copy to run, or null if there is none
+     */
+    private Attempt next() {
+        final Task task = this.admissible();
+        if (task != null)
+            return new Attempt(task, Thread.currentThread(), false);
+        if (!this.speculative || !this.queue.isEmpty())
+            return null;
+        final Task straggler = this.straggler();
+        if (straggler == null)
+            return null;
+        return new Attempt(straggler, Thread.currentThread(), true);
+    }
+
+    /**
+     * Finds the running task that exceeds the median duration of its resource
+     * class by the largest margin, provided that it has a single copy running
+     * and that its resources are available. The caller must hold the lock.
+     * @return The task, or null if there is none
+     */
+    private Task straggler() {
+        final long now = System.nanoTime();
+        long available = -1L;
+        Task straggler = null;
+        double longest = Scheduler.STRAGGLER_FACTOR;
+        for (Attempt attempt : this.attempts) {
+            final Task task = attempt.task;
+            if (task.copies > 1 || task.finished || !task.speculable)
+                continue;
+            final List<Long> samples = this.durations.get(task.resources());
+            if (samples == null || samples.size() < Scheduler.MIN_SAMPLES)
+                continue;
+            final double ratio = (now - attempt.start)
+                / (double) Scheduler.median(samples);
+            if (ratio <= longest)
+                continue;
+            if (available < 0 && task.resources().memory() > 0)
+                available = Scheduler.availableMemory();
+            if (this.admits(task.resources(), available)) {
+                straggler = task;
+                longest = ratio;
+            }
+        }
+        return straggler;
+    }
+
+    /**
+     * Inserts a task after the queued tasks of the same or higher priority.
+     * The caller must hold the lock.
+     * @param task The task
+     */
+    private void enqueue(final Task task) {
+        final ListIterator<Task> iterator =
+            this.queue.listIterator(this.queue.size());
+        while (iterator.hasPrevious()) {
+            if (iterator.previous().priority >= task.priority) {
+                iterator.next();
+                break;
+            }
+        }
+        iterator.add(task);
+    }
+
+    /**
+     * Removes from the queue the first task whose resources are available.
+     * The caller must hold the lock.
+     * @return The task, or null if none can be admitted
+     */
+    private Task admissible() {
+        long available = -1L;
+        final Iterator<Task> iterator = this.queue.iterator();
+        while (iterator.hasNext()) {
+            final Task task = iterator.next();
+            if (available < 0 && task.resources().memory() > 0)
+                available = Scheduler.availableMemory();
+            if (this.admits(task.resources(), available)) {
+                iterator.remove();
+                return task;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Whether a task with the given resources can start now. Declared memory
+     * is reserved against a fixed budget rather than against the memory
+     * available now, which already excludes the memory of running tasks. The
+     * task must also fit the available memory, in case other processes grew.
+     * The caller must hold the lock.
+     * @param resources The task resources
+     * @param available The available memory in MiB (only needed if the task
+     *  declares its memory)
+     * @return Whether the task fits the current budgets
+     */
+    private boolean admits(final ResourceClass resources,
+        final long available) {
+        if (this.occupied > 0
+            && this.occupied + this.weight(resources) > this.limit)
+            return false;
+        if (resources.concurrency() > 0
+            && this.running(resources) >= resources.concurrency())
+            return false;
+        if (resources.memory() == 0)
+            return true;
+        if (this.reserved == 0)
+            this.budget = available;
+        return this.occupied == 0
+            || resources.memory() <= this.budget - this.reserved
+            && resources.memory() <= available;
+    }
+
+    /**
+     * Reserves the resources of a task. The caller must hold the lock.
+     * @param resources The task resources
+     */
+    private void acquire(final ResourceClass resources) {
+        this.occupied += this.weight(resources);
+        this.reserved += resources.memory();
+        this.running.put(resources, this.running(resources) + 1);
+    }
+
+    /**
+     * Frees the resources of a task. The caller must hold the lock.
+     * @param resources The task resources
+     */
+    private void release(final ResourceClass resources) {
+        this.occupied -= this.weight(resources);
+        this.reserved -= resources.memory();
+        this.running.put(resources, this.running(resources) - 1);
+    }
+
+    /**
+     * The number of slots a task occupies. A task that needs more slots
+     * than the current limit is admitted only when nothing else is running.
+     * @param resources The task resources
+     * @return The number of slots
+     */
+    private int weight(final ResourceClass resources) {
+        return Math.min(resources.cpu(), this.capacity);
+    }
+
+    /**
+     * The number of running tasks of a resource class.
+     * @param resources The resource class
+     * @return The number of running tasks
+     */
+    private int running(final ResourceClass resources) {
+        return this.running.getOrDefault(resources, 0);
+    }
+
+    /**
+     * Computes the median of a list of durations.
+     * @param samples The durations
+     * @return The median duration
+     */
+    private static long median(final List<Long> samples) {
+        final List<Long> sorted = new ArrayList<>(samples);
+        Collections.sort(sorted);
+        return Math.max(1L, sorted.get(sorted.size() / 2));
+    }
+
+    /**
+     * Reads the memory available for new processes.
+     * @return The available memory in MiB, or {@link Long#MAX_VALUE} if it
+     *  cannot be determined
+     */
+    private static long availableMemory() {
+        try {
+            for (String line : Files.readAllLines(Scheduler.MEMINFO)) {
+                if (line.startsWith("MemAvailable:")) {
+                    return Long.parseLong(
+                        line.replaceAll("[^0-9]", "")
+                    ) / 1024L;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not a Linux system
+        }
+        return Long.MAX_VALUE;
+    }
+
+}
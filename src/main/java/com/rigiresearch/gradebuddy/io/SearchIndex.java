@@ -0,0 +1,496 @@
+/**
+ * Copyright 2017 University of Victoria
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package com.rigiresearch.gradebuddy.io;
+
+import com.rigiresearch.gradebuddy.model.OutputStore;
+import com.rigiresearch.gradebuddy.model.Result;
+import com.rigiresearch.gradebuddy.model.Submission;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An inverted index over the output, the feedback and the marked source file
+ * of every submission part. Queries are made of words and quoted phrases,
+ * optionally restricted to a field (e.g., {@code output:"segmentation fault"}
+ * or {@code source:gets}); a submission matches if every word and phrase
+ * appears in any of its parts. Parts with identical outputs share the same
+ * output document, so each distinct output is indexed once.
+ * @author Miguel Jimenez (miguel@uvic.ca)
+ * @date 2017-11-12
+ * @version $Id$
+ * @since 0.0.1
+ */
+public final class SearchIndex implements Serializable {
+
+    /**
+     * The indexed fields of a submission part.
+     */
+    public enum Field {
+        OUTPUT, FEEDBACK, SOURCE
+    }
+
+    /**
+     * Serial version UID.
+     */
+    private static final long serialVersionUID = -6004870233311945213L;
+
+    /**
+     * Maximum number of bytes indexed from a source file.
+     */
+    private static final int MAX_SOURCE = 4 * 1024 * 1024;
+
+    /**
+     * A word.
+     */
+    private static final Pattern WORD = Pattern.compile("[\\p{L}\\p{N}_]+");
+
+    /**
+     * A query clause: a word or a quoted phrase, optionally preceded by a
+     * field name.
+     */
+    private static final Pattern CLAUSE = Pattern.compile(
+        "(?i)(?:\\b(output|feedback|source):)?(?:\"([^\"]*)\"|(\\S+))"
+    );
+
+    /**
+     * The indexed submissions.
+     */
+    private final List<Submission> submissions;
+
+    /**
+     * The number of parts per submission.
+     */
+    private final int parts;
+
+    /**
+     * The index of each submission.
+     */
+    private final Map<Submission, Integer> rows = new IdentityHashMap<>();
+
+    /**
+     * The positions of each term, per document. A document is a field of a
+     * submission part.
+     */
+    private final Map<String, Map<Integer, int[]>> postings = new HashMap<>();
+
+    /**
+     * The distinct terms of each document, to remove them once the part is
+     * marked again.
+     */
+    private final Map<Integer, String[]> terms = new HashMap<>();
+
+    /**
+     * The output document of each distinct output, by hash. Output documents
+     * have negative identifiers.
+     */
+    private final Map<String, Integer> outputs = new HashMap<>();
+
+    /**
+     * The parts sharing each output document.
+     */
+    private final Map<Integer, Shared> shared = new HashMap<>();
+
+    /**
+     * The output document of each part.
+     */
+    private final Map<Integer, Integer> outputOf = new HashMap<>();
+
+    /**
+     * The identifier of the next output document.
+     */
+    private int nextOutput = -1;
+
+    /**
+     * Default constructor.
+     * @param submissions The submissions to index
+     * @param parts The number of parts per submission
+     */
+    public SearchIndex(final List<Submission> submissions, final int parts) {
+        this.submissions = submissions;
+        this.parts = parts;
+        for (int i = 0; i < submissions.size(); i++)
+            this.rows.put(submissions.get(i), i);
+    }
+
+    /**
+     * Indexes the current results of every submission.
+     */
+    public void indexAll() {
+        for (Submission submission : this.submissions) {
+            for (int part = 0; part < submission.results().size(); part++) {
+                final Result result = submission.results().get(part);
+                if (!result.pending())
+                    this.index(submission, part, new Entry(result));
+            }
+        }
+    }
+
+    /**
+     * Replaces the indexed text of a submission part.
+     * @param submission The submission
+     * @param part The part index
+     * @param entry The tokenized text of the part
+     */
+    public synchronized void index(final Submission submission,
+        final int part, final Entry entry) {
+        final Integer row = this.rows.get(submission);
+        // E.g., the samples taken to estimate the duration of a run
+        if (row == null || part >= this.parts)
+            return;
+        for (Field field : new Field[] {Field.FEEDBACK, Field.SOURCE}) {
+            final int document = this.document(row, part, field);
+            this.remove(document);
+            this.add(document, entry.tokens[field.ordinal()]);
+        }
+        this.share(row * this.parts + part, entry);
+    }
+
+    /**
+     * Finds the submissions matching a query.
+     * @param query The query
+     * @return The matching submissions, in their original order
+     */
+    public synchronized List<Submission> search(final String query) {
+        BitSet matches = null;
+        final Matcher clause = SearchIndex.CLAUSE.matcher(query);
+        while (clause.find()) {
+            final String[] phrase = SearchIndex.tokenize(
+                clause.group(2) == null ? clause.group(3) : clause.group(2)
+            );
+            if (phrase.length == 0)
+                continue;
+            final BitSet found = this.search(
+                phrase,
+                clause.group(1) == null ?
+                    null : Field.valueOf(clause.group(1).toUpperCase())
+            );
+            if (matches == null)
+                matches = found;
+            else
+                matches.and(found);
+        }
+        final List<Submission> submissions = new ArrayList<>();
+        if (matches == null)
+            return submissions;
+        for (int row = matches.nextSetBit(0); row >= 0;
+            row = matches.nextSetBit(row + 1))
+            submissions.add(this.submissions.get(row));
+        return submissions;
+    }
+
+    /**
+     * Finds the submissions containing a phrase. Only the documents
+     * containing the rarest token of the phrase are visited.
+     * @param phrase The tokens of the phrase
+     * @param field The field to search, or null for any field
+     * @return The matching submission rows
+     */
+    private BitSet search(final String[] phrase, final Field field) {
+        final BitSet rows = new BitSet(this.submissions.size());
+        int rarest = -1;
+        for (int i = 0; i < phrase.length; i++) {
+            final Map<Integer, int[]> postings = this.postings.get(phrase[i]);
+            if (postings == null)
+                return rows;
+            if (rarest < 0
+                || postings.size() < this.postings.get(phrase[rarest]).size())
+                rarest = i;
+        }
+        for (Map.Entry<Integer, int[]> posting
+            : this.postings.get(phrase[rarest]).entrySet()) {
+            final int document = posting.getKey();
+            if (document < 0) {
+                if ((field == null || field == Field.OUTPUT) && this.contains(
+                    document, phrase, rarest, posting.getValue())) {
+                    for (int slot : this.shared.get(document).parts)
+                        rows.set(slot / this.parts);
+                }
+                continue;
+            }
+            final int row = document / Field.values().length / this.parts;
+            if (rows.get(row) || field != null
+                && document % Field.values().length != field.ordinal())
+                continue;
+            if (this.contains(document, phrase, rarest, posting.getValue()))
+                rows.set(row);
+        }
+        return rows;
+    }
+
+    /**
+     * Points a part to the document of its output, indexing the output if
+     * no identical one is indexed yet.
+     * @param slot The part, as row * parts + part
+     * @param entry The text of the part
+     */
+    private void share(final int slot, final Entry entry) {
+        this.unshare(slot);
+        Integer document = this.outputs.get(entry.hash);
+        if (document == null) {
+            document = this.nextOutput--;
+            this.outputs.put(entry.hash, document);
+            this.shared.put(document, new Shared(entry.hash));
+            this.add(document, SearchIndex.tokenize(entry.output));
+        }
+        this.shared.get(document).parts.add(slot);
+        this.outputOf.put(slot, document);
+    }
+
+    /**
+     * Detaches a part from the document of its output, removing the document
+     * once no part shares it.
+     * @param slot The part, as row * parts + part
+     */
+    private void unshare(final int slot) {
+        final Integer document = this.outputOf.remove(slot);
+        if (document == null)
+            return;
+        final Shared shared = this.shared.get(document);
+        shared.parts.remove(slot);
+        if (shared.parts.isEmpty()) {
+            this.shared.remove(document);
+            this.outputs.remove(shared.hash);
+            this.remove(document);
+        }
+    }
+
+    /**
+     * Whether a document contains a phrase.
+     * @param document The document
+     * @param phrase The tokens of the phrase
+     * @param anchor The index of the token whose positions are given
+     * @param anchors The positions of that token in the document
+     * @return Whether the tokens appear next to each other
+     */
+    private boolean contains(final int document, final String[] phrase,
+        final int anchor, final int[] anchors) {
+        final int[][] positions = new int[phrase.length][];
+        for (int i = 0; i < phrase.length; i++) {
+            positions[i] = this.postings.get(phrase[i]).get(document);
+            if (positions[i] == null)
+                return false;
+        }
+        for (int position : anchors) {
+            final int start = position - anchor;
+            int i = 0;
+            while (i < phrase.length && (i == anchor
+                || Arrays.binarySearch(positions[i], start + i) >= 0))
+                i++;
+            if (i == phrase.length)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds the postings of a document.
+     * @param document The document
+     * @param tokens The tokens of the document
+     */
+    private void add(final int document, final String[] tokens) {
+        final Map<String, List<Integer>> positions = new LinkedHashMap<>();
+        for (int i = 0; i < tokens.length; i++)
+            positions.computeIfAbsent(tokens[i], t -> new ArrayList<>()).add(i);
+        if (positions.isEmpty())
+            return;
+        for (Map.Entry<String, List<Integer>> term : positions.entrySet()) {
+            final int[] array = new int[term.getValue().size()];
+            for (int i = 0; i < array.length; i++)
+                array[i] = term.getValue().get(i);
+            this.postings.computeIfAbsent(term.getKey(), t -> new HashMap<>())
+                .put(document, array);
+        }
+        this.terms.put(
+            document,
+            positions.keySet().toArray(new String[positions.size()])
+        );
+    }
+
+    /**
+     * Removes the postings of a document.
+     * @param document The document
+     */
+    private void remove(final int document) {
+        final String[] terms = this.terms.remove(document);
+        if (terms == null)
+            return;
+        for (String term : terms) {
+            final Map<Integer, int[]> postings = this.postings.get(term);
+            postings.remove(document);
+            if (postings.isEmpty())
+                this.postings.remove(term);
+        }
+    }
+
+    /**
+     * The identifier of a document.
+     * @param row The submission index
+     * @param part The part index
+     * @param field The field
+     * @return The document identifier
+     */
+    private int document(final int row, final int part, final Field field) {
+        return (row * this.parts + part) * Field.values().length
+            + field.ordinal();
+    }
+
+    /**
+     * Splits a text into lower-cased words.
+     * @param text The text
+     * @return The words, in order
+     */
+    private static String[] tokenize(final String text) {
+        if (text == null)
+            return new String[0];
+        final List<String> tokens = new ArrayList<>();
+        final Matcher word = SearchIndex.WORD.matcher(text);
+        while (word.find())
+            tokens.add(word.group().toLowerCase());
+        return tokens.toArray(new String[tokens.size()]);
+    }
+
+    /**
+     * The parts sharing an output document.
+     * @author Miguel Jimenez (miguel@uvic.ca)
+     * @date 2017-11-13
+     * @version $Id$
+     * @since 0.0.1
+     */
+    private static final class Shared implements Serializable {
+
+        /**
+         * Serial version UID.
+         */
+        private static final long serialVersionUID = 4450436734981385730L;
+
+        /**
+         * The hash of the output.
+         */
+        private final String hash;
+
+        /**
+         * The parts, as row * parts + part.
+         */
+        private final Set<Integer> parts = new HashSet<>();
+
+        /**
+         * Default constructor.
+         * @param hash The hash of the output
+         */
+        Shared(final String hash) {
+            this.hash = hash;
+        }
+
+    }
+
+    /**
+     * The tokenized text of a submission part. It is computed on the marking
+     * thread, before the index is locked. The output is only tokenized if no
+     * identical output is indexed yet.
+     * @author Miguel Jimenez (miguel@uvic.ca)
+     * @date 2017-11-12
+     * @version $Id$
+     * @since 0.0.1
+     */
+    public static final class Entry {
+
+        /**
+         * The tokens of each field.
+         */
+        private final String[][] tokens = new String[Field.values().length][];
+
+        /**
+         * The output.
+         */
+        private final String output;
+
+        /**
+         * The hash of the output.
+         */
+        private final String hash;
+
+        /**
+         * Default constructor.
+         * @param result The marking result
+         */
+        public Entry(final Result result) {
+            this.output = result.output() == null ? "" : result.output();
+            this.hash = result.outputHash() == null ?
+                OutputStore.hash(this.output) : result.outputHash();
+            this.tokens[Field.FEEDBACK.ordinal()] =
+                SearchIndex.tokenize(result.feedback());
+            this.tokens[Field.SOURCE.ordinal()] =
+                SearchIndex.tokenize(Entry.source(result));
+        }
+
+        /**
+         * Reads the marked source file, up to a maximum size.
+         * @param result The marking result
+         * @return The file contents, or an empty string if there is no file
+         */
+        private static String source(final Result result) {
+            if (result.markedFile() == null || !result.markedFile().isFile())
+                return "";
+            try (InputStream stream =
+                Files.newInputStream(result.markedFile().toPath())) {
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                final byte[] buffer = new byte[8192];
+                int remaining = SearchIndex.MAX_SOURCE;
+                int read;
+                while (remaining > 0 && (read = stream.read(buffer, 0,
+                    Math.min(buffer.length, remaining))) > 0) {
+                    bytes.write(buffer, 0, read);
+                    remaining -= read;
+                }
+                return new String(
+                    bytes.toByteArray(),
+                    StandardCharsets.UTF_8
+                );
+            } catch (IOException e) {
+                System.err.printf(
+                    "Cannot index '%s': %s\n",
+                    result.markedFile(),
+                    e.getMessage()
+                );
+                return "";
+            }
+        }
+
+    }
+
+}
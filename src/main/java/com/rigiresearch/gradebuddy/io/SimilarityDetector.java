@@ -0,0 +1,476 @@
+/**
+ * Copyright 2017 University of Victoria
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package com.rigiresearch.gradebuddy.io;
+
+import com.rigiresearch.gradebuddy.model.SimilarSubmission;
+import com.rigiresearch.gradebuddy.model.Submission;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+/**
+ * Finds submissions with similar source code without comparing every pair.
+ * The source files of each submission are split into tokens, and every run
+ * of {@link #SHINGLE} consecutive tokens becomes a shingle; shingles found
+ * in most submissions (e.g., the starter code) are ignored. A MinHash
+ * signature of each submission's shingles is split into bands, and only the
+ * submissions sharing a band (locality-sensitive hashing) are compared, by
+ * the Jaccard similarity of their shingles. The bands are sized so that
+ * pairs as similar as the threshold share a band with a probability of at
+ * least {@link #MIN_RECALL}.
+ * @author Miguel Jimenez (miguel@uvic.ca)
+ * @date 2017-11-16
+ * @version $Id$
+ * @since 0.0.1
+ */
+@Accessors(fluent = true)
+@Getter
+public final class SimilarityDetector {
+
+    /**
+     * Two similar submissions.
+     * @author Miguel Jimenez (miguel@uvic.ca)
+     * @date 2017-11-16
+     * @version $Id$
+     * @since 0.0.1
+     */
+    @Accessors(fluent = true)
+    @AllArgsConstructor
+    @Getter
+    public static final class Pair {
+
+        /**
+         * The first submission.
+         */
+        private final Submission first;
+
+        /**
+         * The second submission.
+         */
+        private final Submission second;
+
+        /**
+         * The Jaccard similarity of both submissions.
+         */
+        private final double similarity;
+
+    }
+
+    /**
+     * Number of consecutive tokens per shingle.
+     */
+    private static final int SHINGLE = 5;
+
+    /**
+     * Number of hash functions of a signature.
+     */
+    private static final int SIGNATURE = 128;
+
+    /**
+     * Minimum probability of two submissions as similar as the threshold
+     * sharing a band.
+     */
+    private static final double MIN_RECALL = 0.9;
+
+    /**
+     * Fraction of the submissions above which a shingle is considered
+     * common to all of them.
+     */
+    private static final double COMMON = 0.5;
+
+    /**
+     * Maximum size of a source file (in bytes).
+     */
+    private static final long MAX_FILE = 4L * 1024L * 1024L;
+
+    /**
+     * An identifier, a number or any other non-blank character.
+     */
+    private static final Pattern TOKEN = Pattern.compile(
+        "[A-Za-z_]\\w*|\\d+(?:\\.\\d+)?|\\S"
+    );
+
+    /**
+     * The multipliers and increments of the MinHash functions.
+     */
+    private static final long[][] HASHES = SimilarityDetector.hashes();
+
+    /**
+     * The source files to compare, matched by file name.
+     */
+    private final Pattern files;
+
+    /**
+     * The similarity above which two submissions are reported.
+     */
+    private final double threshold;
+
+    /**
+     * Number of rows per band, the largest one (i.e., the fewest pairs to
+     * compare) that keeps the recall at the threshold.
+     */
+    private final int rows;
+
+    /**
+     * The similar pairs found by the last detection, most similar first.
+     */
+    private List<Pair> pairs = new ArrayList<>();
+
+    /**
+     * The number of pairs compared by the last detection.
+     */
+    private long candidates;
+
+    /**
+     * Default constructor.
+     * @param files The regular expression matching the names of the source
+     *  files to compare
+     * @param threshold The similarity above which two submissions are
+     *  reported, between 0 and 1
+     */
+    public SimilarityDetector(final String files, final double threshold) {
+        this.files = Pattern.compile(files);
+        this.threshold = threshold;
+        int rows = SimilarityDetector.SIGNATURE;
+        while (rows > 1 && SimilarityDetector.recall(threshold, rows)
+            < SimilarityDetector.MIN_RECALL)
+            rows /= 2;
+        this.rows = rows;
+    }
+
+    /**
+     * Finds the similar submissions, setting the similar submissions of
+     * each of them. The shingles and signatures are computed in parallel.
+     * @param submissions The submissions
+     * @return The similar pairs, most similar first
+     */
+    public List<Pair> detect(final List<Submission> submissions) {
+        final int[][] shingles = submissions.parallelStream()
+            .map(s -> this.shingles(s.directory()))
+            .toArray(int[][]::new);
+        final int[][] filtered = SimilarityDetector.uncommon(shingles);
+        final int[][] signatures = Arrays.stream(filtered)
+            .parallel()
+            .map(SimilarityDetector::signature)
+            .toArray(int[][]::new);
+        final Set<Long> compared = new HashSet<>();
+        final List<Pair> pairs = new ArrayList<>();
+        final int bands = SimilarityDetector.SIGNATURE / this.rows;
+        for (int band = 0; band < bands; band++) {
+            final Map<Integer, List<Integer>> buckets = new HashMap<>();
+            for (int i = 0; i < signatures.length; i++) {
+                if (filtered[i].length == 0)
+                    continue;
+                buckets.computeIfAbsent(
+                    this.band(signatures[i], band),
+                    key -> new ArrayList<>()
+                ).add(i);
+            }
+            for (List<Integer> bucket : buckets.values()) {
+                for (int x = 0; x < bucket.size(); x++) {
+                    for (int y = x + 1; y < bucket.size(); y++) {
+                        final int i = bucket.get(x);
+                        final int j = bucket.get(y);
+                        if (!compared.add((long) i * signatures.length + j))
+                            continue;
+                        final double similarity = SimilarityDetector
+                            .jaccard(filtered[i], filtered[j]);
+                        if (similarity >= this.threshold) {
+                            pairs.add(
+                                new Pair(
+                                    submissions.get(i),
+                                    submissions.get(j),
+                                    similarity
+                                )
+                            );
+                        }
+                    }
+                }
+            }
+        }
+        pairs.sort(Comparator.comparingDouble(Pair::similarity).reversed());
+        final Map<Submission, List<SimilarSubmission>> similar =
+            new HashMap<>();
+        for (Submission submission : submissions)
+            similar.put(submission, new ArrayList<>());
+        for (Pair pair : pairs) {
+            similar.get(pair.first()).add(
+                new SimilarSubmission(pair.second(), pair.similarity())
+            );
+            similar.get(pair.second()).add(
+                new SimilarSubmission(pair.first(), pair.similarity())
+            );
+        }
+        for (Submission submission : submissions)
+            submission.similar(similar.get(submission));
+        this.pairs = pairs;
+        this.candidates = compared.size();
+        return pairs;
+    }
+
+    /**
+     * Describes the similar pairs found by the last detection, one per line.
+     * @return The ranked report
+     */
+    public String report() {
+        final StringBuilder builder = new StringBuilder();
+        for (Pair pair : this.pairs) {
+            builder.append(
+                String.format(
+                    "%.2f\t%s\t%s\n",
+                    pair.similarity(),
+                    pair.first().studentId(),
+                    pair.second().studentId()
+                )
+            );
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Computes the sorted, distinct shingles of a submission's source files.
+     * @param directory The submission directory
+     * @return The shingle hashes
+     */
+    private int[] shingles(final File directory) {
+        int[] tokens = new int[1024];
+        int length = 0;
+        try (Stream<Path> paths = Files.walk(directory.toPath())) {
+            final List<Path> sources = paths
+                .filter(Files::isRegularFile)
+                .filter(p -> this.files.matcher(p.getFileName().toString())
+                    .matches())
+                .sorted()
+                .collect(Collectors.toList());
+            for (Path path : sources) {
+                if (Files.size(path) > SimilarityDetector.MAX_FILE)
+                    continue;
+                final Matcher matcher = SimilarityDetector.TOKEN.matcher(
+                    new String(Files.readAllBytes(path), StandardCharsets.UTF_8)
+                );
+                while (matcher.find()) {
+                    if (length == tokens.length)
+                        tokens = Arrays.copyOf(tokens, length * 2);
+                    tokens[length++] =
+                        matcher.group().toLowerCase().hashCode();
+                }
+            }
+        } catch (IOException e) {
+            System.err.printf(
+                "Cannot read the source files of %s: %s\n",
+                directory,
+                e.getMessage()
+            );
+        }
+        final int count = length - SimilarityDetector.SHINGLE + 1;
+        if (count <= 0)
+            return new int[0];
+        final int[] shingles = new int[count];
+        for (int i = 0; i < count; i++) {
+            int hash = 0;
+            for (int k = 0; k < SimilarityDetector.SHINGLE; k++)
+                hash = hash * 31 + tokens[i + k];
+            shingles[i] = SimilarityDetector.mix(hash);
+        }
+        Arrays.sort(shingles);
+        int distinct = 1;
+        for (int i = 1; i < count; i++) {
+            if (shingles[i] != shingles[distinct - 1])
+                shingles[distinct++] = shingles[i];
+        }
+        return Arrays.copyOf(shingles, distinct);
+    }
+
+    /**
+     * Removes the shingles found in most submissions. The shingles of all the
+     * submissions are sorted together, so that the common ones are found as
+     * runs of equal values.
+     * @param shingles The sorted shingles of each submission
+     * @return The sorted shingles of each submission, without the common ones
+     */
+    private static int[][] uncommon(final int[][] shingles) {
+        final int[] all = new int[
+            Arrays.stream(shingles).mapToInt(set -> set.length).sum()
+        ];
+        int length = 0;
+        for (int[] set : shingles) {
+            System.arraycopy(set, 0, all, length, set.length);
+            length += set.length;
+        }
+        Arrays.parallelSort(all);
+        final double limit = Math.max(
+            2,
+            SimilarityDetector.COMMON * shingles.length
+        );
+        final int[] common = new int[all.length];
+        int count = 0;
+        for (int i = 0, j; i < all.length; i = j) {
+            j = i + 1;
+            while (j < all.length && all[j] == all[i])
+                j++;
+            if (j - i > limit)
+                common[count++] = all[i];
+        }
+        final int[] sorted = Arrays.copyOf(common, count);
+        return Arrays.stream(shingles)
+            .parallel()
+            .map(set -> SimilarityDetector.difference(set, sorted))
+            .toArray(int[][]::new);
+    }
+
+    /**
+     * Removes the elements of a sorted set from another one.
+     * @param set The sorted set
+     * @param removed The sorted elements to remove
+     * @return The remaining elements, sorted
+     */
+    private static int[] difference(final int[] set, final int[] removed) {
+        final int[] result = new int[set.length];
+        int count = 0;
+        int j = 0;
+        for (int value : set) {
+            while (j < removed.length && removed[j] < value)
+                j++;
+            if (j == removed.length || removed[j] != value)
+                result[count++] = value;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Computes the MinHash signature of a set of shingles.
+     * @param shingles The shingles
+     * @return The minimum hash of the shingles under each hash function
+     */
+    private static int[] signature(final int[] shingles) {
+        final int[] signature = new int[SimilarityDetector.HASHES.length];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        for (int shingle : shingles) {
+            for (int i = 0; i < signature.length; i++) {
+                final long[] hash = SimilarityDetector.HASHES[i];
+                final int value = (int) ((hash[0] * shingle + hash[1]) >>> 33);
+                if (value < signature[i])
+                    signature[i] = value;
+            }
+        }
+        return signature;
+    }
+
+    /**
+     * Hashes one band of a signature.
+     * @param signature The signature
+     * @param band The band index
+     * @return The hash of the band's rows
+     */
+    private int band(final int[] signature, final int band) {
+        int hash = band;
+        for (int i = 0; i < this.rows; i++)
+            hash = hash * 31 + signature[band * this.rows + i];
+        return hash;
+    }
+
+    /**
+     * The probability of two submissions sharing a band.
+     * @param similarity The similarity of both submissions
+     * @param rows The number of rows per band
+     * @return The probability of all the rows of some band being equal
+     */
+    private static double recall(final double similarity, final int rows) {
+        return 1d - Math.pow(
+            1d - Math.pow(similarity, rows),
+            SimilarityDetector.SIGNATURE / rows
+        );
+    }
+
+    /**
+     * Computes the Jaccard similarity of two sorted sets.
+     * @param a The first set
+     * @param b The second set
+     * @return The size of their intersection over the size of their union
+     */
+    private static double jaccard(final int[] a, final int[] b) {
+        int i = 0;
+        int j = 0;
+        int common = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] == b[j]) {
+                common++;
+                i++;
+                j++;
+            } else if (a[i] < b[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return common / (double) (a.length + b.length - common);
+    }
+
+    /**
+     * Spreads the bits of a hash (the MurmurHash3 finalizer).
+     * @param hash The hash
+     * @return The mixed hash
+     */
+    private static int mix(final int hash) {
+        int h = hash;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Draws the multipliers (odd) and increments of the MinHash functions,
+     * with a fixed seed so that signatures are reproducible.
+     * @return One multiplier and increment per hash function
+     */
+    private static long[][] hashes() {
+        final Random random = new Random(0x5eedL);
+        final long[][] hashes = new long[SimilarityDetector.SIGNATURE][2];
+        for (long[] hash : hashes) {
+            hash[0] = random.nextLong() | 1L;
+            hash[1] = random.nextLong();
+        }
+        return hashes;
+    }
+
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright 2017 University of Victoria
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package com.rigiresearch.gradebuddy.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+/**
+ * A test case of a marking part, declared in a test list: one line per test
+ * case, e.g., {@code name=empty input=empty.in args="-v" expected=empty.out
+ * weight=2}. Paths are relative to the test list.
+ * @author Miguel Jimenez (miguel@uvic.ca)
+ * @date 2017-11-15
+ * @version $Id$
+ * @since 0.0.1
+ */
+@Accessors(fluent = true)
+@AllArgsConstructor
+@Getter
+public final class TestCase implements Serializable {
+
+    /**
+     * Serial version UID.
+     */
+    private static final long serialVersionUID = 6012735146003380425L;
+
+    /**
+     * The test case name.
+     */
+    private final String name;
+
+    /**
+     * The file the program reads its standard input from, or null.
+     */
+    private final File input;
+
+    /**
+     * The program arguments, as understood by the shell.
+     */
+    private final String args;
+
+    /**
+     * The file containing the expected output, or null to compute it from
+     * the reference implementation.
+     */
+    private final File expected;
+
+    /**
+     * The weight of this test case in the part marks.
+     */
+    private final double weight;
+
+    /**
+     * The seed the input is generated from, or -1 if the input is given.
+     */
+    private final int seed;
+
+    /**
+     * Reads a test list. Blank lines and lines starting with # are ignored.
+     * @param list The test list
+     * @return The test cases, in order
+     * @throws IOException If the list cannot be read or a weight is not a
+     *  number
+     */
+    public static List<TestCase> read(final File list) throws IOException {
+        final List<TestCase> tests = new ArrayList<>();
+        final File directory = list.getAbsoluteFile().getParentFile();
+        for (String line : Files.readAllLines(list.toPath())) {
+            final String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#"))
+                continue;
+            final Map<String, String> values = Directives.pairs(trimmed);
+            final String name =
+                values.getOrDefault("name", "T" + (tests.size() + 1));
+            final String weight = values.getOrDefault("weight", "1");
+            final double parsed;
+            try {
+                parsed = Double.parseDouble(weight);
+            } catch (NumberFormatException e) {
+                throw new IOException(
+                    String.format(
+                        "%s declares an invalid weight '%s' for test case %s",
+                        list,
+                        weight,
+                        name
+                    ),
+                    e
+                );
+            }
+            tests.add(
+                new TestCase(
+                    name,
+                    TestCase.file(directory, values.get("input")),
+                    values.getOrDefault("args", ""),
+                    TestCase.file(directory, values.get("expected")),
+                    parsed,
+                    -1
+                )
+            );
+        }
+        return tests;
+    }
+
+    /**
+     * Creates a test case whose input is generated from a seed, and whose
+     * expected output is computed by the reference implementation.
+     * @param seed The seed, from 1
+     * @param directory The directory to generate the input in
+     * @return The test case
+     */
+    public static TestCase random(final int seed, final File directory) {
+        final String name = "R" + seed;
+        return new TestCase(name, new File(directory, name + ".in"), "",
+            null, 1d, seed);
+    }
+
+    /**
+     * Whether the input of this test case is generated.
+     * @return Whether the test case has a seed
+     */
+    public boolean generated() {
+        return this.seed > 0;
+    }
+
+    /**
+     * Resolves a path relative to a directory.
+     * @param directory The directory
+     * @param path The path, or null
+     * @return The file, or null if there is no path
+     */
+    private static File file(final File directory, final String path) {
+        if (path == null)
+            return null;
+        if (new File(path).isAbsolute())
+            return new File(path);
+        return new File(directory, path);
+    }
+
+}
@@ -0,0 +1,254 @@
+/**
+ * Copyright 2017 University of Victoria
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package com.rigiresearch.gradebuddy.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+/**
+ * A scratch copy of a submission directory. Marking scripts run on the
+ * workspace instead of the original submission, so that concurrent tasks
+ * never write to the same files.
+ * @author Miguel Jimenez (miguel@uvic.ca)
+ * @date 2017-11-02
+ * @version $Id$
+ * @since 0.0.1
+ */
+@Accessors(fluent = true)
+@Getter
+public final class Workspace implements Closeable {
+
+    /**
+     * The way a submission is cloned into a workspace.
+     */
+    public enum Mode {
+        /**
+         * Scripts run directly on the submission directory.
+         */
+        NONE,
+
+        /**
+         * Files are copied into the workspace.
+         */
+        COPY,
+
+        /**
+         * Files are hard-linked into the workspace (copied if that is not
+         * possible). Scripts must replace files rather than modify them in
+         * place, as linked files share their contents with the submission.
+         */
+        LINK
+    }
+
+    /**
+     * Shared memory file system, preferred as workspace root when available.
+     */
+    private static final Path TMPFS = Paths.get("/dev/shm");
+
+    /**
+     * The original submission directory.
+     */
+    private final File origin;
+
+    /**
+     * The directory on which scripts are run.
+     */
+    private final File directory;
+
+    /**
+     * The clone mode.
+     */
+    private final Mode mode;
+
+    /**
+     * Default constructor.
+     * @param origin The submission directory
+     * @param mode The clone mode
+     * @throws IOException If the workspace cannot be created
+     */
+    public Workspace(final File origin, final Mode mode) throws IOException {
+        this.origin = origin.getAbsoluteFile();
+        this.mode = mode;
+        if (mode == Mode.NONE) {
+            this.directory = this.origin;
+        } else {
+            this.directory = Files.createTempDirectory(
+                this.root(),
+                "gradebuddy-"
+            ).toFile();
+            try {
+                this.populate();
+            } catch (IOException e) {
+                try {
+                    this.close();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Translates a file from this workspace into the corresponding file in
+     * the original submission.
+     * @param file A file reported by a marking script
+     * @return The file within the submission directory
+     */
+    public File restore(final File file) {
+        final Path path = file.toPath().toAbsolutePath().normalize();
+        final Path workspace = this.directory.toPath();
+        if (this.mode == Mode.NONE || !path.startsWith(workspace))
+            return file;
+        return this.origin.toPath()
+            .resolve(workspace.relativize(path))
+            .toFile();
+    }
+
+    /**
+     * Deletes the workspace and everything in it.
+     * @throws IOException If a file cannot be deleted
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.mode == Mode.NONE)
+            return;
+        Files.walkFileTree(
+            this.directory.toPath(),
+            new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir,
+                    BasicFileAttributes attrs) throws IOException {
+                    // Student programs may leave read-only directories
+                    dir.toFile().setWritable(true);
+                    dir.toFile().setExecutable(true);
+                    return FileVisitResult.CONTINUE;
+                }
+                @Override
+                public FileVisitResult visitFile(Path file,
+                    BasicFileAttributes attrs) throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir,
+                    IOException e) throws IOException {
+                    Files.delete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            }
+        );
+    }
+
+    /**
+     * Clones the submission files into the workspace directory.
+     * @throws IOException If a file cannot be cloned
+     */
+    private void populate() throws IOException {
+        final Path source = this.origin.toPath();
+        final Path target = this.directory.toPath();
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir,
+                BasicFileAttributes attrs) throws IOException {
+                final Path copy = target.resolve(source.relativize(dir));
+                if (!Files.exists(copy))
+                    Files.createDirectory(copy);
+                return FileVisitResult.CONTINUE;
+            }
+            @Override
+            public FileVisitResult visitFile(Path file,
+                BasicFileAttributes attrs) throws IOException {
+                Workspace.this.replicate(
+                    file,
+                    target.resolve(source.relativize(file)),
+                    attrs
+                );
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Clones a single file.
+     * @param file The original file
+     * @param copy The file to create
+     * @param attrs The original file attributes
+     * @throws IOException If the file cannot be cloned
+     */
+    private void replicate(final Path file, final Path copy,
+        final BasicFileAttributes attrs) throws IOException {
+        if (this.mode == Mode.LINK && attrs.isRegularFile()) {
+            try {
+                Files.createLink(copy, file);
+                return;
+            } catch (IOException | UnsupportedOperationException e) {
+                // Different file systems; fall back to copying the file
+            }
+        }
+        Files.copy(
+            file,
+            copy,
+            StandardCopyOption.COPY_ATTRIBUTES,
+            LinkOption.NOFOLLOW_LINKS
+        );
+    }
+
+    /**
+     * Determines the directory in which workspaces are created. Hard links
+     * require the workspace to be on the same file system as the submission,
+     * otherwise tmpfs is preferred.
+     * @return The parent directory for this workspace
+     * @throws IOException If a file store cannot be determined
+     */
+    private Path root() throws IOException {
+        final Path tmp = Paths.get(System.getProperty("java.io.tmpdir"));
+        final List<Path> candidates = new ArrayList<>();
+        if (Files.isDirectory(Workspace.TMPFS)
+            && Files.isWritable(Workspace.TMPFS))
+            candidates.add(Workspace.TMPFS);
+        candidates.add(tmp);
+        if (this.mode == Mode.LINK) {
+            final FileStore store = Files.getFileStore(this.origin.toPath());
+            for (Path candidate : candidates) {
+                if (Files.getFileStore(candidate).equals(store))
+                    return candidate;
+            }
+        }
+        return candidates.get(0);
+    }
+
+}
@@ -21,9 +21,11 @@
  */
 package com.rigiresearch.gradebuddy.model;
 
+import java.util.Iterator;
 import java.util.concurrent.atomic.AtomicInteger;
-import lombok.AllArgsConstructor;
 import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 import lombok.experimental.Accessors;
 
 /**
@@ -34,7 +36,7 @@ import lombok.experimental.Accessors;
  * @since 0.0.1
  */
 @Accessors(fluent = true)
-@AllArgsConstructor
+@RequiredArgsConstructor
 @Getter
 public final class CsvReport {
 
@@ -43,13 +45,31 @@ public final class CsvReport {
      */
     private final Iterable<Submission> submissions;
 
+    /**
+     * Whether to include the resource usage of each part.
+     */
+    @Setter
+    private boolean usage;
+
     /**
      * The CSV report.
      * @return A valid CSV string
      */
     public String report(final boolean useHTML) {
         StringBuilder builder = new StringBuilder();
-        builder.append("StudentId,Marks,Feedback,Directory\n");
+        builder.append("StudentId,Marks,Feedback,Directory");
+        final Iterator<Submission> iterator = this.submissions.iterator();
+        final int parts = iterator.hasNext() && this.usage ?
+            iterator.next().results().size() : 0;
+        for (int part = 1; part <= parts; part++) {
+            builder.append(
+                String.format(
+                    ",CPU P%d (s),Wall P%1$d (s),Peak RSS P%1$d (KiB)",
+                    part
+                )
+            );
+        }
+        builder.append("\n");
         submissions.forEach(submission -> {
             double marks = 0d;
             String feedback = new String();
@@ -57,10 +77,11 @@ public final class CsvReport {
             for (Result result : submission.results()) {
                 marks += result.marks();
                 feedback += String.format(
-                    useHTML ? "<p><b>PART %d (%s)</b>: %s</p>"
-                            : "PART %d (%s): %s\n",
+                    useHTML ? "<p><b>PART %d (%s%s)</b>: %s</p>"
+                            : "PART %d (%s%s): %s\n",
                     i.getAndIncrement(),
                     result.markedFile().getName(),
+                    result.retried() ? ", re-marked after a timeout" : "",
                     result.feedback().isEmpty() ?
                         "No feedback provided" : result.feedback()
                 );
@@ -72,6 +93,21 @@ public final class CsvReport {
             builder.append(this.escape(feedback));
             builder.append(",");
             builder.append(submission.directory().getAbsolutePath());
+            for (int part = 0; part < parts; part++) {
+                final Usage usage = part < submission.results().size() ?
+                    submission.results().get(part).usage() : null;
+                builder.append(",");
+                if (usage != null) {
+                    builder.append(usage.cpu() / 1000d);
+                    builder.append(",");
+                    builder.append(usage.wall() / 1000d);
+                    builder.append(",");
+                    if (usage.peakRss() >= 0)
+                        builder.append(usage.peakRss());
+                } else {
+                    builder.append(",,");
+                }
+            }
             builder.append("\n");
         });
         return builder.toString();
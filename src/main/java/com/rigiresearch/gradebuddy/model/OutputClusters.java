@@ -0,0 +1,192 @@
+/**
+ * Copyright 2017 University of Victoria
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package com.rigiresearch.gradebuddy.model;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+/**
+ * Groups the submissions by the output of a part, ignoring differences in
+ * whitespace and blank lines. The fingerprint of each distinct output is
+ * computed once, so that clustering again after some results change only
+ * hashes the new outputs.
+ * @author Miguel Jimenez (miguel@uvic.ca)
+ * @date 2017-11-17
+ * @version $Id$
+ * @since 0.0.1
+ */
+public final class OutputClusters {
+
+    /**
+     * Submissions of a part with the same normalized output.
+     * @author Miguel Jimenez (miguel@uvic.ca)
+     * @date 2017-11-17
+     * @version $Id$
+     * @since 0.0.1
+     */
+    @Accessors(fluent = true)
+    @AllArgsConstructor
+    @Getter
+    public static final class Cluster {
+
+        /**
+         * The hash of the normalized output.
+         */
+        private final String fingerprint;
+
+        /**
+         * The output of the first submission in the cluster.
+         */
+        private final String output;
+
+        /**
+         * The submissions, in table order.
+         */
+        private final List<Submission> submissions;
+
+        /**
+         * The lowest marks in the cluster.
+         * @param part The part index
+         * @return The marks
+         */
+        public double minimum(final int part) {
+            return this.submissions.stream()
+                .mapToDouble(s -> s.results().get(part).marks())
+                .min()
+                .orElse(0d);
+        }
+
+        /**
+         * The highest marks in the cluster.
+         * @param part The part index
+         * @return The marks
+         */
+        public double maximum(final int part) {
+            return this.submissions.stream()
+                .mapToDouble(s -> s.results().get(part).marks())
+                .max()
+                .orElse(0d);
+        }
+
+        /**
+         * The feedback shared by every submission in the cluster.
+         * @param part The part index
+         * @return The feedback, or null if the submissions disagree
+         */
+        public String feedback(final int part) {
+            final String feedback =
+                this.submissions.get(0).results().get(part).feedback();
+            for (Submission submission : this.submissions) {
+                if (!Objects.equals(
+                    feedback, submission.results().get(part).feedback()))
+                    return null;
+            }
+            return feedback;
+        }
+
+    }
+
+    /**
+     * The fingerprint of each output, by the hash of the raw output.
+     */
+    private final Map<String, String> fingerprints = new HashMap<>();
+
+    /**
+     * Groups the marked submissions by the output of a part. Pending parts
+     * are left out.
+     * @param submissions The submissions
+     * @param part The part index
+     * @return The clusters, largest first
+     */
+    public List<Cluster> clusters(final List<Submission> submissions,
+        final int part) {
+        final Map<String, List<Submission>> members = new LinkedHashMap<>();
+        final Map<String, String> outputs = new HashMap<>();
+        for (Submission submission : submissions) {
+            final Result result = submission.results().get(part);
+            if (result.pending())
+                continue;
+            final String output = result.output() == null ?
+                "" : result.output();
+            final String fingerprint = this.fingerprint(output,
+                result.outputHash());
+            members.computeIfAbsent(fingerprint, f -> new ArrayList<>())
+                .add(submission);
+            outputs.putIfAbsent(fingerprint, output);
+        }
+        final List<Cluster> clusters = new ArrayList<>();
+        for (Map.Entry<String, List<Submission>> entry : members.entrySet()) {
+            clusters.add(
+                new Cluster(
+                    entry.getKey(),
+                    outputs.get(entry.getKey()),
+                    entry.getValue()
+                )
+            );
+        }
+        clusters.sort(
+            Comparator.comparingInt((Cluster c) -> c.submissions().size())
+                .reversed()
+        );
+        return clusters;
+    }
+
+    /**
+     * Normalizes an output: trims every line, collapses runs of whitespace
+     * and drops blank lines.
+     * @param output The output
+     * @return The normalized output
+     */
+    public static String normalize(final String output) {
+        final StringBuilder builder = new StringBuilder();
+        for (String line : output.split("\r?\n")) {
+            final String trimmed = line.trim().replaceAll("\\s+", " ");
+            if (!trimmed.isEmpty())
+                builder.append(trimmed).append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * The fingerprint of an output, computed the first time it is seen.
+     * @param output The output
+     * @param hash The hash of the raw output, or null if unknown
+     * @return The hash of the normalized output
+     */
+    private synchronized String fingerprint(final String output,
+        final String hash) {
+        final String key = hash == null ? OutputStore.hash(output) : hash;
+        return this.fingerprints.computeIfAbsent(
+            key,
+            k -> OutputStore.hash(OutputClusters.normalize(output))
+        );
+    }
+
+}
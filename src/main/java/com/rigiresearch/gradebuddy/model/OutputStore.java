@@ -0,0 +1,132 @@
+/**
+ * Copyright 2017 University of Victoria
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package com.rigiresearch.gradebuddy.model;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Content-addressed storage of program outputs. Results with byte-identical
+ * outputs share a single copy of the output and of its SHA-256 hash, which
+ * also makes backups store it once. Outputs are dropped once no stored
+ * result refers to them, e.g., after re-marking.
+ * @author Miguel Jimenez (miguel@uvic.ca)
+ * @date 2017-11-13
+ * @version $Id$
+ * @since 0.0.1
+ */
+public final class OutputStore {
+
+    /**
+     * Hexadecimal digits.
+     */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * The outputs, by hash.
+     */
+    private final Map<String, String> outputs = new HashMap<>();
+
+    /**
+     * The number of stored results referring to each output, by hash.
+     */
+    private final Map<String, Integer> references = new HashMap<>();
+
+    /**
+     * Replaces the output of a result with the stored copy, storing it if it
+     * is new.
+     * @param result The result
+     * @return The same result
+     */
+    public Result intern(final Result result) {
+        if (result.output() == null)
+            return result;
+        final String hash = result.outputHash() == null ?
+            OutputStore.hash(result.output()) : result.outputHash();
+        final String output;
+        synchronized (this) {
+            output = this.outputs.computeIfAbsent(hash, h -> result.output());
+        }
+        return result.outputHash(hash).output(output);
+    }
+
+    /**
+     * Records that a result was stored, so that its output is kept.
+     * @param result An interned result
+     */
+    public synchronized void retain(final Result result) {
+        if (result.outputHash() != null)
+            this.references.merge(result.outputHash(), 1, Integer::sum);
+    }
+
+    /**
+     * Records that a stored result was replaced, dropping its output if no
+     * other stored result refers to it.
+     * @param result An interned result
+     */
+    public synchronized void release(final Result result) {
+        final String hash = result.outputHash();
+        final Integer count = hash == null ? null : this.references.get(hash);
+        if (count == null)
+            return;
+        if (count > 1) {
+            this.references.put(hash, count - 1);
+        } else {
+            this.references.remove(hash);
+            this.outputs.remove(hash);
+        }
+    }
+
+    /**
+     * The number of distinct outputs stored.
+     * @return The number of outputs
+     */
+    public synchronized int size() {
+        return this.outputs.size();
+    }
+
+    /**
+     * Computes the SHA-256 hash of an output.
+     * @param output The output
+     * @return The hash, in hexadecimal
+     */
+    public static String hash(final String output) {
+        final byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256")
+                .digest(output.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+        final char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[i * 2] = OutputStore.HEX[(digest[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = OutputStore.HEX[digest[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+}
@@ -23,7 +23,7 @@ package com.rigiresearch.gradebuddy.model;
 
 import java.io.File;
 import java.io.Serializable;
-import lombok.AllArgsConstructor;
+import java.util.List;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
@@ -37,7 +37,6 @@ import lombok.experimental.Accessors;
  * @since 0.0.1
  */
 @Accessors(fluent = true)
-@AllArgsConstructor
 @Getter
 @ToString(of = {"marks"})
 public final class Result implements Serializable {
@@ -71,4 +70,62 @@ public final class Result implements Serializable {
     @Setter
     private String output;
 
+    /**
+     * The SHA-256 hash of the output, if it was stored in an
+     * {@link OutputStore}.
+     */
+    @Setter
+    private String outputHash;
+
+    /**
+     * Whether the part is waiting to be marked.
+     */
+    @Setter
+    private boolean pending;
+
+    /**
+     * Whether the marking script timed out.
+     */
+    @Setter
+    private boolean timedOut;
+
+    /**
+     * Whether this result comes from re-marking a timed out submission.
+     */
+    @Setter
+    private boolean retried;
+
+    /**
+     * The resources consumed by the marking script, if known.
+     */
+    @Setter
+    private Usage usage;
+
+    /**
+     * The timing of the student program, if the part is timed.
+     */
+    @Setter
+    private Timing timing;
+
+    /**
+     * The result of each test case, if the part is marked by test cases.
+     */
+    @Setter
+    private List<TestResult> tests;
+
+    /**
+     * Default constructor.
+     * @param markedFile The file marked
+     * @param marks The assigned marks
+     * @param feedback Comments explaining the assigned marks
+     * @param output The program's output
+     */
+    public Result(final File markedFile, final double marks,
+        final String feedback, final String output) {
+        this.markedFile = markedFile;
+        this.marks = marks;
+        this.feedback = feedback;
+        this.output = output;
+    }
+
 }
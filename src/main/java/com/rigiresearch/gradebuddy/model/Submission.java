@@ -66,4 +66,11 @@ public final class Submission implements Serializable {
     @Setter
     private List<Result> results = new ArrayList<>();
 
+    /**
+     * The submissions whose source code is similar to this one's, most
+     * similar first, or null if similarity was not checked.
+     */
+    @Setter
+    private List<SimilarSubmission> similar;
+
 }
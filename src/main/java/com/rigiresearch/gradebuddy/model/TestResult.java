@@ -0,0 +1,79 @@
+/**
+ * Copyright 2017 University of Victoria
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package com.rigiresearch.gradebuddy.model;
+
+import java.io.Serializable;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+/**
+ * The result of running one test case of a submission part.
+ * @author Miguel Jimenez (miguel@uvic.ca)
+ * @date 2017-11-15
+ * @version $Id$
+ * @since 0.0.1
+ */
+@Accessors(fluent = true)
+@AllArgsConstructor
+@Getter
+public final class TestResult implements Serializable {
+
+    /**
+     * Serial version UID.
+     */
+    private static final long serialVersionUID = -2741694935521466190L;
+
+    /**
+     * The test case name.
+     */
+    private final String name;
+
+    /**
+     * The weight of the test case in the part marks.
+     */
+    private final double weight;
+
+    /**
+     * The fraction of the test case passed, between 0 and 1.
+     */
+    private final double score;
+
+    /**
+     * The differences found, or why the test case could not run.
+     */
+    private final String feedback;
+
+    /**
+     * Whether the program timed out.
+     */
+    private final boolean timedOut;
+
+    /**
+     * Whether the test case passed.
+     * @return Whether the whole output matched
+     */
+    public boolean passed() {
+        return this.score >= 1d;
+    }
+
+}
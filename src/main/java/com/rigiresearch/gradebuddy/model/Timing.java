@@ -0,0 +1,166 @@
+/**
+ * Copyright 2017 University of Victoria
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package com.rigiresearch.gradebuddy.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+
+/**
+ * Statistics of the repeated timed runs of a student program. Outliers are
+ * rejected using Tukey's fences (1.5 times the interquartile range).
+ * @author Miguel Jimenez (miguel@uvic.ca)
+ * @date 2017-11-08
+ * @version $Id$
+ * @since 0.0.1
+ */
+@Accessors(fluent = true)
+@Getter
+public final class Timing implements Serializable {
+
+    /**
+     * Serial version UID.
+     */
+    private static final long serialVersionUID = 6052718338154410712L;
+
+    /**
+     * Multiple of the interquartile range beyond which a run is an outlier.
+     */
+    private static final double FENCE = 1.5;
+
+    /**
+     * The durations (in milliseconds) kept after rejecting outliers, sorted.
+     */
+    private final List<Double> samples;
+
+    /**
+     * The number of rejected runs.
+     */
+    private final int rejected;
+
+    /**
+     * The median duration (in milliseconds).
+     */
+    private final double median;
+
+    /**
+     * The 90th percentile duration (in milliseconds).
+     */
+    private final double p90;
+
+    /**
+     * The coefficient of variation (standard deviation over mean).
+     */
+    private final double cv;
+
+    /**
+     * The median duration of the reference implementation (in
+     * milliseconds), or -1 if there is no reference.
+     */
+    @Setter
+    private double reference = -1d;
+
+    /**
+     * Default constructor.
+     * @param durations The measured durations (in milliseconds)
+     */
+    public Timing(final List<Double> durations) {
+        final List<Double> sorted = new ArrayList<>(durations);
+        Collections.sort(sorted);
+        final double q1 = Timing.quantile(sorted, 0.25);
+        final double q3 = Timing.quantile(sorted, 0.75);
+        final double low = q1 - Timing.FENCE * (q3 - q1);
+        final double high = q3 + Timing.FENCE * (q3 - q1);
+        this.samples = new ArrayList<>();
+        for (Double duration : sorted) {
+            if (duration >= low && duration <= high)
+                this.samples.add(duration);
+        }
+        this.rejected = sorted.size() - this.samples.size();
+        this.median = Timing.quantile(this.samples, 0.5);
+        this.p90 = Timing.quantile(this.samples, 0.9);
+        double sum = 0d;
+        for (Double duration : this.samples)
+            sum += duration;
+        final double mean = sum / this.samples.size();
+        double squares = 0d;
+        for (Double duration : this.samples)
+            squares += (duration - mean) * (duration - mean);
+        this.cv = mean > 0 ?
+            Math.sqrt(squares / this.samples.size()) / mean : 0d;
+    }
+
+    /**
+     * The median duration relative to the reference implementation.
+     * @return The ratio of the medians, or -1 if there is no reference
+     */
+    public double ratio() {
+        return this.reference > 0 ? this.median / this.reference : -1d;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder(
+            String.format(
+                "median %.2f ms, p90 %.2f ms, CV %.1f%% over %d run(s)",
+                this.median,
+                this.p90,
+                this.cv * 100,
+                this.samples.size()
+            )
+        );
+        if (this.rejected > 0)
+            builder.append(String.format(", %d outlier(s)", this.rejected));
+        if (this.reference > 0)
+            builder.append(
+                String.format(", %.2fx the reference", this.ratio())
+            );
+        return builder.toString();
+    }
+
+    /**
+     * Computes a quantile using linear interpolation.
+     * @param sorted The sorted durations
+     * @param rank The quantile rank, between 0 and 1
+     * @return The duration at the given rank, or 0 if there are no durations
+     */
+    private static double quantile(final List<Double> sorted,
+        final double rank) {
+        if (sorted.isEmpty())
+            return 0d;
+        final double position = rank * (sorted.size() - 1);
+        final int index = (int) position;
+        if (index + 1 >= sorted.size())
+            return sorted.get(index);
+        return sorted.get(index)
+            + (position - index) * (sorted.get(index + 1) - sorted.get(index));
+    }
+
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright 2017 University of Victoria
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package com.rigiresearch.gradebuddy.model;
+
+import java.io.Serializable;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.experimental.Accessors;
+
+/**
+ * Resources consumed by the process tree of a marking script.
+ * @author Miguel Jimenez (miguel@uvic.ca)
+ * @date 2017-11-07
+ * @version $Id$
+ * @since 0.0.1
+ */
+@Accessors(fluent = true)
+@AllArgsConstructor
+@Getter
+@ToString
+public final class Usage implements Serializable {
+
+    /**
+     * Serial version UID.
+     */
+    private static final long serialVersionUID = -3318866317962447104L;
+
+    /**
+     * User CPU time (in milliseconds).
+     */
+    private final long user;
+
+    /**
+     * System CPU time (in milliseconds).
+     */
+    private final long system;
+
+    /**
+     * Wall-clock time (in milliseconds).
+     */
+    private final long wall;
+
+    /**
+     * Peak resident set size (in KiB) of the largest process, or -1 if
+     * unknown.
+     */
+    private final long peakRss;
+
+    /**
+     * Total CPU time.
+     * @return The user plus system CPU time (in milliseconds)
+     */
+    public long cpu() {
+        return this.user + this.system;
+    }
+
+}
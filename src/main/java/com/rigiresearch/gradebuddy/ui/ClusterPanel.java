@@ -0,0 +1,456 @@
+/**
+ * Copyright 2017 University of Victoria
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package com.rigiresearch.gradebuddy.ui;
+
+import com.rigiresearch.gradebuddy.io.AutomatedMarking;
+import com.rigiresearch.gradebuddy.io.SearchIndex;
+import com.rigiresearch.gradebuddy.model.OutputClusters;
+import com.rigiresearch.gradebuddy.model.Submission;
+import java.awt.BorderLayout;
+import java.awt.GridBagConstraints;
+import java.awt.GridBagLayout;
+import java.awt.Insets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JComboBox;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.JTextArea;
+import javax.swing.JTextField;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Side panel listing the clusters of submissions with the same output in a
+ * part, largest first. Selecting a cluster selects its submissions in the
+ * table, and its marks and feedback can be set at once. Clusters are
+ * computed in the background whenever the results change.
+ * @author Miguel Jimenez (miguel@uvic.ca)
+ * @date 2017-11-17
+ * @version $Id$
+ * @since 0.0.1
+ */
+public final class ClusterPanel extends JPanel {
+
+    /**
+     * The clusters of a part, as a table.
+     * @author Miguel Jimenez (miguel@uvic.ca)
+     * @date 2017-11-17
+     * @version $Id$
+     * @since 0.0.1
+     */
+    private static final class ClusterTableModel extends AbstractTableModel {
+
+        /**
+         * Serial version UID.
+         */
+        private static final long serialVersionUID = -3197215802424541067L;
+
+        /**
+         * The column names.
+         */
+        private static final String[] COLUMNS = {"Size", "Marks", "Output"};
+
+        /**
+         * The displayed clusters.
+         */
+        private List<OutputClusters.Cluster> clusters = new ArrayList<>();
+
+        /**
+         * The part the clusters belong to.
+         */
+        private int part;
+
+        /**
+         * Replaces the displayed clusters.
+         * @param clusters The clusters
+         * @param part The part the clusters belong to
+         */
+        void clusters(final List<OutputClusters.Cluster> clusters,
+            final int part) {
+            this.clusters = clusters;
+            this.part = part;
+            this.fireTableDataChanged();
+        }
+
+        /**
+         * A displayed cluster.
+         * @param row The row index
+         * @return The cluster
+         */
+        OutputClusters.Cluster cluster(final int row) {
+            return this.clusters.get(row);
+        }
+
+        /**
+         * The row of a cluster.
+         * @param fingerprint The fingerprint of the cluster
+         * @return The row index, or -1 if it is not displayed
+         */
+        int row(final String fingerprint) {
+            for (int i = 0; i < this.clusters.size(); i++) {
+                if (this.clusters.get(i).fingerprint().equals(fingerprint))
+                    return i;
+            }
+            return -1;
+        }
+
+        /* (non-Javadoc)
+         * @see javax.swing.table.TableModel#getRowCount()
+         */
+        @Override
+        public int getRowCount() {
+            return this.clusters.size();
+        }
+
+        /* (non-Javadoc)
+         * @see javax.swing.table.TableModel#getColumnCount()
+         */
+        @Override
+        public int getColumnCount() {
+            return ClusterTableModel.COLUMNS.length;
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see javax.swing.table.AbstractTableModel#getColumnName(int)
+         */
+        @Override
+        public String getColumnName(final int columnIndex) {
+            return ClusterTableModel.COLUMNS[columnIndex];
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see javax.swing.table.AbstractTableModel#getColumnClass(int)
+         */
+        @Override
+        public Class<?> getColumnClass(final int columnIndex) {
+            return columnIndex == 0 ? Integer.class : String.class;
+        }
+
+        /* (non-Javadoc)
+         * @see javax.swing.table.TableModel#getValueAt(int, int)
+         */
+        @Override
+        public Object getValueAt(final int rowIndex, final int columnIndex) {
+            final OutputClusters.Cluster cluster = this.clusters.get(rowIndex);
+            switch (columnIndex) {
+                case 0:
+                    return cluster.submissions().size();
+                case 1:
+                    final double min = cluster.minimum(this.part);
+                    final double max = cluster.maximum(this.part);
+                    return min == max ? String.valueOf(min)
+                        : String.format("%s - %s", min, max);
+                default:
+                    for (String line : cluster.output().split("\n")) {
+                        if (!line.trim().isEmpty())
+                            return line.trim();
+                    }
+                    return "(no output)";
+            }
+        }
+
+    }
+
+    /**
+     * Serial version UID.
+     */
+    private static final long serialVersionUID = -8818318946413926218L;
+
+    /**
+     * Time (in milliseconds) to wait for results to stop changing before
+     * clustering them again.
+     */
+    private static final int DELAY = 500;
+
+    /**
+     * The submission table.
+     */
+    private final SubmissionTable table;
+
+    /**
+     * The marking object.
+     */
+    private final AutomatedMarking marking;
+
+    /**
+     * Computes the clusters, caching the fingerprint of each output.
+     */
+    private final OutputClusters clusters = new OutputClusters();
+
+    /**
+     * The displayed clusters.
+     */
+    private final ClusterTableModel model = new ClusterTableModel();
+
+    /**
+     * The table of clusters.
+     */
+    private final JTable list = new JTable(this.model);
+
+    /**
+     * The part to cluster.
+     */
+    private final JComboBox<String> parts = new JComboBox<>();
+
+    /**
+     * Displays the number of clusters.
+     */
+    private final JLabel count = new JLabel();
+
+    /**
+     * The marks to set.
+     */
+    private final JTextField marks = new JTextField();
+
+    /**
+     * The feedback to set.
+     */
+    private final JTextArea feedback = new JTextArea(4, 20);
+
+    /**
+     * Clusters the results again once they stop changing.
+     */
+    private final Timer changes =
+        new Timer(ClusterPanel.DELAY, e -> this.refresh());
+
+    /**
+     * Computes the clusters and updates the full-text index, off the Event
+     * Dispatch Thread.
+     */
+    private final transient ExecutorService worker =
+        Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "output-clusters");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    /**
+     * Number of refreshes requested, so that outdated clusters are dropped.
+     */
+    private int refreshes;
+
+    /**
+     * Whether the selected cluster is being restored after a refresh.
+     */
+    private boolean restoring;
+
+    /**
+     * Default constructor.
+     * @param table The submission table
+     * @param marking The marking object
+     */
+    public ClusterPanel(final SubmissionTable table,
+        final AutomatedMarking marking) {
+        super(new BorderLayout(0, 5));
+        this.table = table;
+        this.marking = marking;
+        for (int i = 0; i < marking.scripts().size(); i++)
+            this.parts.addItem(String.format("P%d", i + 1));
+        this.parts.addActionListener(e -> {
+            this.list.clearSelection();
+            this.refresh();
+        });
+        this.changes.setRepeats(false);
+        this.table.model().addTableModelListener(e -> this.changes.restart());
+        this.list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        this.list.getColumnModel().getColumn(0).setPreferredWidth(40);
+        this.list.getColumnModel().getColumn(1).setPreferredWidth(60);
+        this.list.getColumnModel().getColumn(2).setPreferredWidth(200);
+        this.list.getSelectionModel().addListSelectionListener(e -> {
+            if (!e.getValueIsAdjusting() && !this.restoring)
+                this.select();
+        });
+        final JPanel header = new JPanel(new BorderLayout(5, 0));
+        header.add(new JLabel("Part:"), BorderLayout.LINE_START);
+        header.add(this.parts, BorderLayout.CENTER);
+        header.add(this.count, BorderLayout.LINE_END);
+        final JButton apply = new JButton("Apply to Cluster");
+        apply.addActionListener(e -> this.apply());
+        final JPanel form = new JPanel(new GridBagLayout());
+        final GridBagConstraints c = new GridBagConstraints();
+        c.insets = new Insets(2, 0, 2, 5);
+        c.anchor = GridBagConstraints.FIRST_LINE_START;
+        form.add(new JLabel("Marks:"), c);
+        c.gridx = 1;
+        c.weightx = 1;
+        c.fill = GridBagConstraints.HORIZONTAL;
+        form.add(this.marks, c);
+        c.gridx = 0;
+        c.gridy = 1;
+        c.weightx = 0;
+        c.fill = GridBagConstraints.NONE;
+        form.add(new JLabel("Feedback:"), c);
+        c.gridx = 1;
+        c.weightx = 1;
+        c.fill = GridBagConstraints.BOTH;
+        this.feedback.setLineWrap(true);
+        this.feedback.setWrapStyleWord(true);
+        form.add(new JScrollPane(this.feedback), c);
+        c.gridy = 2;
+        c.fill = GridBagConstraints.NONE;
+        c.anchor = GridBagConstraints.LINE_END;
+        form.add(apply, c);
+        this.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+        this.add(header, BorderLayout.PAGE_START);
+        this.add(new JScrollPane(this.list), BorderLayout.CENTER);
+        this.add(form, BorderLayout.PAGE_END);
+        this.refresh();
+    }
+
+    /**
+     * Clusters the selected part in the background and then displays the
+     * clusters, keeping the selected one.
+     */
+    private void refresh() {
+        final int part = this.parts.getSelectedIndex();
+        if (part < 0)
+            return;
+        final int refresh = ++this.refreshes;
+        final List<Submission> submissions = this.marking.submissions();
+        this.worker.execute(() -> {
+            final List<OutputClusters.Cluster> clusters =
+                this.clusters.clusters(submissions, part);
+            SwingUtilities.invokeLater(() -> {
+                if (refresh != this.refreshes)
+                    return;
+                final OutputClusters.Cluster selected = this.selected();
+                this.model.clusters(clusters, part);
+                this.count.setText(
+                    String.format("%d cluster(s)", clusters.size())
+                );
+                if (selected != null) {
+                    final int row = this.model.row(selected.fingerprint());
+                    if (row >= 0) {
+                        // Keep the table selection and the form as they are
+                        this.restoring = true;
+                        this.list.setRowSelectionInterval(row, row);
+                        this.restoring = false;
+                    }
+                }
+            });
+        });
+    }
+
+    /**
+     * The selected cluster.
+     * @return The cluster, or null if none is selected
+     */
+    private OutputClusters.Cluster selected() {
+        final int row = this.list.getSelectedRow();
+        return row < 0 ? null : this.model.cluster(row);
+    }
+
+    /**
+     * Selects the submissions of the selected cluster in the submission
+     * table, and fills in the form with their marks and feedback if every
+     * submission has the same.
+     */
+    private void select() {
+        final OutputClusters.Cluster cluster = this.selected();
+        if (cluster == null)
+            return;
+        final int part = this.parts.getSelectedIndex();
+        final ListSelectionModel selection = this.table.getSelectionModel();
+        selection.setValueIsAdjusting(true);
+        selection.clearSelection();
+        int first = -1;
+        for (Submission submission : cluster.submissions()) {
+            final int row = this.table.model().row(submission);
+            if (row < 0)
+                continue;
+            final int view = this.table.convertRowIndexToView(row);
+            if (view < 0)
+                continue;
+            selection.addSelectionInterval(view, view);
+            if (first < 0 || view < first)
+                first = view;
+        }
+        selection.setValueIsAdjusting(false);
+        if (first >= 0)
+            this.table.scrollRectToVisible(
+                this.table.getCellRect(first, 0, true)
+            );
+        final double min = cluster.minimum(part);
+        this.marks.setText(
+            min == cluster.maximum(part) ? String.valueOf(min) : ""
+        );
+        // Leave the feedback blank (i.e., unchanged) unless it is shared
+        final String feedback = cluster.feedback(part);
+        this.feedback.setText(feedback == null ? "" : feedback);
+    }
+
+    /**
+     * Sets the marks and feedback of every submission in the selected
+     * cluster, as a single table update. Blank fields are left unchanged.
+     */
+    private void apply() {
+        final OutputClusters.Cluster cluster = this.selected();
+        if (cluster == null)
+            return;
+        final int part = this.parts.getSelectedIndex();
+        Double marks = null;
+        if (!this.marks.getText().trim().isEmpty()) {
+            try {
+                marks = Double.valueOf(this.marks.getText().trim());
+            } catch (NumberFormatException e) {
+                JOptionPane.showMessageDialog(
+                    this,
+                    String.format("Invalid marks '%s'", this.marks.getText()),
+                    "Error",
+                    JOptionPane.ERROR_MESSAGE
+                );
+                return;
+            }
+        }
+        final String feedback = this.feedback.getText().trim().isEmpty() ?
+            null : this.feedback.getText();
+        final List<Submission> submissions =
+            Collections.unmodifiableList(cluster.submissions());
+        this.table.model().update(submissions, part, marks, feedback);
+        if (feedback != null) {
+            // Keep the full-text index up to date with the new feedback
+            this.worker.execute(() -> {
+                for (Submission submission : submissions) {
+                    this.marking.index().index(
+                        submission,
+                        part,
+                        new SearchIndex.Entry(submission.results().get(part))
+                    );
+                }
+            });
+        }
+    }
+
+}
@@ -0,0 +1,243 @@
+/**
+ * Copyright 2017 University of Victoria
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package com.rigiresearch.gradebuddy.ui;
+
+import com.rigiresearch.gradebuddy.io.AutomatedMarking;
+import com.rigiresearch.gradebuddy.model.Submission;
+import java.awt.BorderLayout;
+import java.awt.GridLayout;
+import java.util.BitSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.swing.BorderFactory;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JTextField;
+import javax.swing.RowFilter;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+
+/**
+ * Text fields filtering the submission table: one evaluated over a snapshot
+ * of the {@link SubmissionKeys} the sorter keeps up to date, and another one
+ * searching the full-text index of the results. Both are evaluated in the
+ * background, and the matching rows are then swapped into the table at
+ * once.
+ * @author Miguel Jimenez (miguel@uvic.ca)
+ * @date 2017-11-11
+ * @version $Id$
+ * @since 0.0.1
+ */
+public final class FilterBar extends JPanel implements DocumentListener {
+
+    /**
+     * Serial version UID.
+     */
+    private static final long serialVersionUID = 3618367394410541962L;
+
+    /**
+     * Time (in milliseconds) to wait for the user to stop typing, and
+     * between refreshes while the results change.
+     */
+    private static final int DELAY = 150;
+
+    /**
+     * The submission table.
+     */
+    private final SubmissionTable table;
+
+    /**
+     * The marking object, holding the full-text index.
+     */
+    private final AutomatedMarking marking;
+
+    /**
+     * The filter text.
+     */
+    private final JTextField text = new JTextField();
+
+    /**
+     * The full-text search query.
+     */
+    private final JTextField search = new JTextField();
+
+    /**
+     * Displays the number of matching rows.
+     */
+    private final JLabel count = new JLabel();
+
+    /**
+     * Applies the filter once the user stops typing, or at most once per
+     * period while the results change.
+     */
+    private final Timer typing = new Timer(FilterBar.DELAY, e -> this.apply());
+
+    /**
+     * Evaluates the filters, off the Event Dispatch Thread.
+     */
+    private final transient ExecutorService evaluator =
+        Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "table-filter");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    /**
+     * Number of filters applied, so that outdated evaluations are dropped.
+     */
+    private int applied;
+
+    /**
+     * Default constructor.
+     * @param table The submission table
+     * @param marking The marking object
+     */
+    public FilterBar(final SubmissionTable table,
+        final AutomatedMarking marking) {
+        super(new BorderLayout(5, 0));
+        this.table = table;
+        this.marking = marking;
+        this.typing.setRepeats(false);
+        this.text.setToolTipText(
+            "E.g., P3 < 50 timeout \"wrong output\" (all conditions must hold)"
+        );
+        this.search.setToolTipText(
+            "Words and \"quoted phrases\" in the output, feedback or source, "
+            + "e.g., output:\"segmentation fault\" source:gets"
+        );
+        this.text.getDocument().addDocumentListener(this);
+        this.search.getDocument().addDocumentListener(this);
+        // Marks and feedback change while marking and editing; changes keep
+        // coming during a run, so refresh periodically rather than wait for
+        // them to stop
+        this.table.model().addTableModelListener(e -> {
+            if ((!this.text.getText().trim().isEmpty()
+                || !this.search.getText().trim().isEmpty())
+                && !this.typing.isRunning())
+                this.typing.start();
+        });
+        final JPanel fields = new JPanel(new GridLayout(1, 2, 10, 0));
+        fields.add(FilterBar.labeled("Filter:", this.text));
+        fields.add(FilterBar.labeled("Search:", this.search));
+        this.setBorder(BorderFactory.createEmptyBorder(2, 5, 2, 5));
+        this.add(fields, BorderLayout.CENTER);
+        this.add(this.count, BorderLayout.LINE_END);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see javax.swing.event.DocumentListener#insertUpdate(javax.swing.event.DocumentEvent)
+     */
+    @Override
+    public void insertUpdate(final DocumentEvent e) {
+        this.typing.restart();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see javax.swing.event.DocumentListener#removeUpdate(javax.swing.event.DocumentEvent)
+     */
+    @Override
+    public void removeUpdate(final DocumentEvent e) {
+        this.typing.restart();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see javax.swing.event.DocumentListener#changedUpdate(javax.swing.event.DocumentEvent)
+     */
+    @Override
+    public void changedUpdate(final DocumentEvent e) {
+        this.typing.restart();
+    }
+
+    /**
+     * Evaluates the current filter over a snapshot of the sorter's keys and
+     * the search in the background, and then applies them.
+     */
+    private void apply() {
+        final int filter = ++this.applied;
+        final SubmissionQuery query = new SubmissionQuery(this.text.getText());
+        final String search = this.search.getText().trim();
+        final SubmissionSorter sorter = this.table.sorter();
+        if (query.isEmpty() && search.isEmpty()) {
+            sorter.setRowFilter(null);
+            this.count.setText("");
+            return;
+        }
+        final SubmissionKeys keys = sorter.keys().snapshot();
+        final int rows = keys.rows();
+        this.evaluator.execute(() -> {
+            final BitSet matches = new BitSet(rows);
+            if (query.isEmpty())
+                matches.set(0, rows);
+            else
+                matches.or(query.evaluate(keys));
+            if (!search.isEmpty()) {
+                final BitSet found = new BitSet(rows);
+                for (Submission s : this.marking.index().search(search)) {
+                    final int row = this.table.model().row(s);
+                    if (row >= 0)
+                        found.set(row);
+                }
+                matches.and(found);
+            }
+            SwingUtilities.invokeLater(() -> {
+                if (filter != this.applied)
+                    return;
+                sorter.setRowFilter(
+                    new RowFilter<SubmissionTableModel, Integer>() {
+                        @Override
+                        public boolean include(final Entry<
+                            ? extends SubmissionTableModel,
+                            ? extends Integer> entry) {
+                            return matches.get(entry.getIdentifier());
+                        }
+                    }
+                );
+                this.count.setText(
+                    String.format(
+                        "%d of %d",
+                        matches.cardinality(),
+                        rows
+                    )
+                );
+            });
+        });
+    }
+
+    /**
+     * Places a label before a text field.
+     * @param label The label text
+     * @param field The text field
+     * @return A panel containing both
+     */
+    private static JPanel labeled(final String label, final JTextField field) {
+        final JPanel panel = new JPanel(new BorderLayout(5, 0));
+        panel.add(new JLabel(label), BorderLayout.LINE_START);
+        panel.add(field, BorderLayout.CENTER);
+        return panel;
+    }
+
+}
@@ -23,21 +23,28 @@ package com.rigiresearch.gradebuddy.ui;
 
 import com.rigiresearch.gradebuddy.io.AutomatedMarking;
 import com.rigiresearch.gradebuddy.io.Command;
-import com.rigiresearch.gradebuddy.model.Result;
+import com.rigiresearch.gradebuddy.io.SearchIndex;
 import com.rigiresearch.gradebuddy.model.Submission;
 import java.awt.BorderLayout;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Function;
+import javax.swing.BorderFactory;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
 import javax.swing.JOptionPane;
+import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
 import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
+import javax.swing.event.TableModelEvent;
 import org.fife.ui.rsyntaxtextarea.RSyntaxTextArea;
 import org.fife.ui.rsyntaxtextarea.SyntaxConstants;
 import org.fife.ui.rtextarea.RTextScrollPane;
@@ -88,11 +95,61 @@ public final class MainWindow extends JFrame {
     @Getter
     private SubmissionTable table;
 
+    /**
+     * Recently displayed source code and output.
+     */
+    private final PreviewCache previews =
+        new PreviewCache(PreviewCache.DEFAULT_BUDGET);
+
+    /**
+     * Displays what is running in the background.
+     */
+    @Getter
+    private JLabel status;
+
+    /**
+     * The tool bar.
+     */
+    private Toolbar toolBar;
+
     /**
      * Script to run on submission selection.
      */
     private File selectionScript;
 
+    /**
+     * Indexes the feedback edited by hand, off the Event Dispatch Thread.
+     */
+    private final ExecutorService indexer = Executors.newSingleThreadExecutor(
+        runnable -> {
+            final Thread thread = new Thread(runnable, "feedback-indexer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    );
+
+    /**
+     * Runs the selection script, off the Event Dispatch Thread.
+     */
+    private final ExecutorService scripts = Executors.newSingleThreadExecutor(
+        runnable -> {
+            final Thread thread = new Thread(runnable, "selection-script");
+            thread.setDaemon(true);
+            return thread;
+        }
+    );
+
+    /**
+     * The last selection script run.
+     */
+    private Future<?> script;
+
+    /**
+     * Number of selection script runs, used to ignore the outcome of runs
+     * superseded by a newer selection.
+     */
+    private int runs;
+
     /**
      * Updates the selection script.
      * @param selectionScript the new script
@@ -125,9 +182,30 @@ public final class MainWindow extends JFrame {
             String.class,
             new TextAreaCellRenderer()
         );
-        JScrollPane tablePanel = new JScrollPane(this.table);
+        // Keep the full-text index up to date with the feedback edited by
+        // hand; reading the marked file may take a while, so not on the EDT
+        this.table.model().addTableModelListener(e -> {
+            final int column = e.getColumn();
+            if (e.getType() != TableModelEvent.UPDATE || column < 1
+                || !this.table.model().isTextColumn(column))
+                return;
+            final Submission submission =
+                this.marking.submissions().get(e.getFirstRow());
+            final int part = column / 2 - 1;
+            this.indexer.execute(() -> this.marking.index().index(
+                submission,
+                part,
+                new SearchIndex.Entry(submission.results().get(part))
+            ));
+        });
+        JPanel tablePanel = new JPanel(new BorderLayout());
+        tablePanel.add(new FilterBar(this.table, this.marking),
+            BorderLayout.PAGE_START);
+        tablePanel.add(new JScrollPane(this.table), BorderLayout.CENTER);
         this.table.setFillsViewportHeight(true);
-        this.table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        this.table.setSelectionMode(
+            ListSelectionModel.MULTIPLE_INTERVAL_SELECTION
+        );
         this.table.getSelectionModel()
             .addListSelectionListener(new ListSelectionListener() {
                 @Override
@@ -136,10 +214,13 @@ public final class MainWindow extends JFrame {
                         return;
                     final ListSelectionModel model =
                         (ListSelectionModel) e.getSource();
+                    final int row = model.getLeadSelectionIndex();
+                    if (row < 0 || !model.isSelectedIndex(row))
+                        return;
                     MainWindow.this.onSelectionChange(
-                        MainWindow.this.marking
-                            .submissions()
-                            .get(model.getMinSelectionIndex())
+                        MainWindow.this.marking.submissions().get(
+                            MainWindow.this.table.convertRowIndexToModel(row)
+                        )
                     );
                 }
             });
@@ -156,17 +237,15 @@ public final class MainWindow extends JFrame {
         JScrollPane outputPanel = new JScrollPane(this.outputTextArea);
 
         // Tool bar
-        Toolbar toolBar = new Toolbar(
+        this.toolBar = new Toolbar(
             this.table,
             this.marking,
             new Function<Submission, Object>() {
                 @Override
                 public Object apply(Submission submission) {
-                    try {
+                    MainWindow.this.previews.invalidate(submission);
+                    if (submission == MainWindow.this.selected())
                         MainWindow.this.displayData(submission);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
                     return new Object();
                 }
             }
@@ -180,10 +259,78 @@ public final class MainWindow extends JFrame {
         grid.addDockable(0, 1, 2, 1, new DefaultDockable(tablePanel, "Submissions"));
         grid.addDockable(0, 2, 1, 1, new DefaultDockable(syntaxPanel, "Source code"));
         grid.addDockable(1, 2, 1, 1, new DefaultDockable(outputPanel, "Output"));
+        grid.addDockable(
+            2, 1, 0.6, 2,
+            new DefaultDockable(
+                new ClusterPanel(this.table, this.marking),
+                "Clusters"
+            )
+        );
         station.dropTree(grid.toTree());
         
-        this.add(toolBar, BorderLayout.PAGE_START);
+        // Status bar
+        this.status = new JLabel(" ");
+        this.status.setBorder(BorderFactory.createEmptyBorder(2, 5, 2, 5));
+
+        this.add(this.toolBar, BorderLayout.PAGE_START);
         this.add(station.getComponent(), BorderLayout.CENTER);
+        this.add(this.status, BorderLayout.PAGE_END);
+    }
+
+    /**
+     * Records that the results of a submission changed, e.g., while the
+     * marking is still running. This method may be called from any thread.
+     * @param submission The submission
+     */
+    public void resultsChanged(final Submission submission) {
+        this.previews.invalidate(submission);
+        this.table.model().changed(submission);
+        SwingUtilities.invokeLater(() -> {
+            if (submission == this.selected())
+                this.displayData(submission);
+        });
+    }
+
+    /**
+     * Records whether the marking of every submission is running, during
+     * which submissions cannot be re-marked. This method may be called from
+     * any thread.
+     * @param running Whether the marking is running
+     */
+    public void markingRunning(final boolean running) {
+        SwingUtilities.invokeLater(() -> this.toolBar.busy(running));
+    }
+
+    /**
+     * Reports that the marking stopped because of an error. This method may
+     * be called from any thread.
+     * @param e The error
+     */
+    public void markingFailed(final Exception e) {
+        SwingUtilities.invokeLater(() -> {
+            this.status.setText("Marking failed");
+            JOptionPane.showMessageDialog(
+                this,
+                String.format(
+                    "The marking stopped because of an error: %s",
+                    e.getMessage()
+                ),
+                "Error",
+                JOptionPane.ERROR_MESSAGE
+            );
+        });
+    }
+
+    /**
+     * The submission in the lead selected row.
+     * @return The submission, or null if no row is selected
+     */
+    private Submission selected() {
+        final int row = this.table.getSelectionModel().getLeadSelectionIndex();
+        if (row < 0 || !this.table.isRowSelected(row))
+            return null;
+        return this.marking.submissions()
+            .get(this.table.convertRowIndexToModel(row));
     }
 
     /**
@@ -192,7 +339,10 @@ public final class MainWindow extends JFrame {
      */
     private void onSelectionChange(final Submission submission) {
         try {
+            // Mark it next if it is still waiting in a queue
+            this.marking.prioritize(submission);
             this.displayData(submission);
+            this.prefetchNeighbours();
             if (this.selectionScript != null)
                 this.runScript(submission);
         } catch (Exception e) {
@@ -201,56 +351,85 @@ public final class MainWindow extends JFrame {
     }
 
     /**
-     * Displays the source code and output of the submission files.
+     * Displays the source code and output of the submission files. The files
+     * are read in the background unless they were recently displayed.
      * @param submission The selected submission
-     * @throws IOException If the something goes wrong reading the files
      */
-    private void displayData(final Submission submission)
-        throws IOException {
-        this.sourceTextArea.setText(new String());
-        this.outputTextArea.setText(new String());
-        for (Result r : submission.results()) {
-            if (r.markedFile().isFile()) {
-                String contents = new String(
-                    Files.readAllBytes(
-                        Paths.get(r.markedFile().getAbsolutePath())
-                    )
-                );
-                this.sourceTextArea.setText(
-                    String.format(
-                        "%s%s// %s\n%s",
-                        this.sourceTextArea.getText(),
-                        this.sourceTextArea.getText().isEmpty()? "" : "\n\n",
-                        r.markedFile().getName(),
-                        contents
-                    )
-                );
-                this.outputTextArea.setText(
-                    String.format(
-                        "%s%s// %s\n%s",
-                        this.outputTextArea.getText(),
-                        this.outputTextArea.getText().isEmpty()? "" : "\n\n",
-                        r.markedFile().getName(),
-                        r.output()
-                    )
-                );
-            }
+    private void displayData(final Submission submission) {
+        final boolean cached = this.previews.load(submission, preview -> {
+            this.sourceTextArea.setText(preview.source());
+            this.outputTextArea.setText(preview.output());
+        });
+        if (!cached) {
+            this.sourceTextArea.setText(new String());
+            this.outputTextArea.setText(new String());
         }
     }
 
     /**
-     * Executes the selection script.
+     * Loads the submissions before and after the selected one, so that
+     * navigating the table with the arrow keys displays them right away.
+     */
+    private void prefetchNeighbours() {
+        final int row = this.table.getSelectionModel().getLeadSelectionIndex();
+        final List<Submission> submissions = this.marking.submissions();
+        if (row + 1 < this.table.getRowCount())
+            this.previews.prefetch(
+                submissions.get(this.table.convertRowIndexToModel(row + 1))
+            );
+        if (row > 0)
+            this.previews.prefetch(
+                submissions.get(this.table.convertRowIndexToModel(row - 1))
+            );
+    }
+
+    /**
+     * Executes the selection script in the background, cancelling the
+     * previous run if it has not finished yet.
      * @param submission The currently selected submission
-     * @throws Exception See {@link Command#execute()}
      */
-    private void runScript(final Submission submission) throws Exception {
-        Command c = new Command(
-            new String[]{
-                "sh",
-                this.selectionScript.getAbsolutePath(),
-                submission.directory().getAbsolutePath()
+    private void runScript(final Submission submission) {
+        if (this.script != null)
+            this.script.cancel(true);
+        final int run = ++this.runs;
+        this.status.setText(
+            String.format(
+                "Running %s on %s...",
+                this.selectionScript.getName(),
+                submission.studentId()
+            )
+        );
+        this.script = this.scripts.submit(() -> {
+            try {
+                final Command c = new Command(
+                    new String[]{
+                        "sh",
+                        this.selectionScript.getAbsolutePath(),
+                        submission.directory().getAbsolutePath()
+                    }
+                ).execute();
+                SwingUtilities.invokeLater(() -> {
+                    if (run == this.runs)
+                        this.scriptFinished(c);
+                });
+            } catch (InterruptedException e) {
+                // Cancelled by a newer selection
+            } catch (Exception e) {
+                e.printStackTrace();
+                SwingUtilities.invokeLater(() -> {
+                    if (run == this.runs)
+                        this.status.setText("Selection script failed");
+                });
             }
-        ).execute();
+        });
+    }
+
+    /**
+     * Reports the outcome of the selection script.
+     * @param c The finished command
+     */
+    private void scriptFinished(final Command c) {
+        this.status.setText(" ");
         if (c.result().exitCode() != 0) {
             System.out.println(c.result().outputStream().toString());
             System.err.println(c.result().errorStream().toString());
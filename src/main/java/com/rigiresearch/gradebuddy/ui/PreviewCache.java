@@ -0,0 +1,256 @@
+/**
+ * Copyright 2017 University of Victoria
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package com.rigiresearch.gradebuddy.ui;
+
+import com.rigiresearch.gradebuddy.model.Result;
+import com.rigiresearch.gradebuddy.model.Submission;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import javax.swing.SwingUtilities;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.Accessors;
+
+/**
+ * Loads the source code and output of submissions in the background and
+ * keeps the most recently viewed ones, up to a memory budget.
+ * @author Miguel Jimenez (miguel@uvic.ca)
+ * @date 2017-11-10
+ * @version $Id$
+ * @since 0.0.1
+ */
+public final class PreviewCache {
+
+    /**
+     * The documents displayed for a submission.
+     */
+    @Accessors(fluent = true)
+    @RequiredArgsConstructor
+    @Getter
+    public static final class Preview {
+
+        /**
+         * The source code of the marked files.
+         */
+        private final String source;
+
+        /**
+         * The output of the marked files.
+         */
+        private final String output;
+
+        /**
+         * Approximate memory used by this preview.
+         * @return The size in bytes
+         */
+        public long size() {
+            return 2L * (this.source.length() + this.output.length());
+        }
+    }
+
+    /**
+     * Default memory budget (in bytes).
+     */
+    public static final long DEFAULT_BUDGET = 64L * 1024L * 1024L;
+
+    /**
+     * The memory budget (in bytes).
+     */
+    private final long budget;
+
+    /**
+     * The cached previews, in access order.
+     */
+    private final Map<Submission, Preview> previews =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Loads the previews, off the Event Dispatch Thread.
+     */
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(
+        runnable -> {
+            final Thread thread = new Thread(runnable, "preview-loader");
+            thread.setDaemon(true);
+            return thread;
+        }
+    );
+
+    /**
+     * Number of times the preview of each submission was invalidated, so
+     * that a preview built from outdated results is not cached.
+     */
+    private final Map<Submission, Long> versions = new HashMap<>();
+
+    /**
+     * Memory used by the cached previews (in bytes).
+     */
+    private long used;
+
+    /**
+     * Incremented on every request, so that loads no longer needed are
+     * skipped.
+     */
+    private volatile long generation;
+
+    /**
+     * Default constructor.
+     * @param budget The memory budget (in bytes)
+     */
+    public PreviewCache(final long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Obtains the preview of a submission. If it is cached, the call-back is
+     * run right away; otherwise it is run on the Event Dispatch Thread once
+     * the preview is loaded, unless another preview was requested meanwhile.
+     * @param submission The submission
+     * @param loaded Call-back receiving the preview
+     * @return Whether the preview was cached
+     */
+    public boolean load(final Submission submission,
+        final Consumer<Preview> loaded) {
+        final long generation = ++this.generation;
+        final Preview cached = this.cached(submission);
+        if (cached != null) {
+            loaded.accept(cached);
+            return true;
+        }
+        this.loader.execute(() -> {
+            if (generation != this.generation)
+                return;
+            final Preview preview = this.preview(submission);
+            SwingUtilities.invokeLater(() -> {
+                if (generation == this.generation)
+                    loaded.accept(preview);
+            });
+        });
+        return false;
+    }
+
+    /**
+     * Loads the preview of a submission in the background, unless another
+     * preview is requested first.
+     * @param submission The submission
+     */
+    public void prefetch(final Submission submission) {
+        final long generation = this.generation;
+        this.loader.execute(() -> {
+            if (generation == this.generation)
+                this.preview(submission);
+        });
+    }
+
+    /**
+     * Discards the preview of a submission, e.g., after re-marking it.
+     * @param submission The submission
+     */
+    public synchronized void invalidate(final Submission submission) {
+        this.versions.merge(submission, 1L, Long::sum);
+        final Preview preview = this.previews.remove(submission);
+        if (preview != null)
+            this.used -= preview.size();
+    }
+
+    /**
+     * Returns a cached preview.
+     * @param submission The submission
+     * @return The preview, or null if it is not cached
+     */
+    private synchronized Preview cached(final Submission submission) {
+        return this.previews.get(submission);
+    }
+
+    /**
+     * Returns the preview of a submission, building it if necessary. The
+     * preview is not cached if the submission was invalidated meanwhile.
+     * @param submission The submission
+     * @return The preview
+     */
+    private Preview preview(final Submission submission) {
+        final long version;
+        synchronized (this) {
+            final Preview cached = this.previews.get(submission);
+            if (cached != null)
+                return cached;
+            version = this.versions.getOrDefault(submission, 0L);
+        }
+        final Preview preview = PreviewCache.build(submission);
+        synchronized (this) {
+            if (version != this.versions.getOrDefault(submission, 0L))
+                return preview;
+            this.previews.put(submission, preview);
+            this.used += preview.size();
+            final Iterator<Preview> eldest = this.previews.values().iterator();
+            // Keep at least the preview just loaded
+            while (this.used > this.budget && this.previews.size() > 1) {
+                this.used -= eldest.next().size();
+                eldest.remove();
+            }
+        }
+        return preview;
+    }
+
+    /**
+     * Reads the marked files and their output into a single document each.
+     * @param submission The submission
+     * @return The preview
+     */
+    private static Preview build(final Submission submission) {
+        final StringBuilder source = new StringBuilder();
+        final StringBuilder output = new StringBuilder();
+        for (Result r : submission.results()) {
+            if (r == null || !r.markedFile().isFile())
+                continue;
+            String contents;
+            try {
+                contents = new String(
+                    Files.readAllBytes(r.markedFile().toPath())
+                );
+            } catch (IOException e) {
+                e.printStackTrace();
+                contents = "";
+            }
+            if (source.length() > 0) {
+                source.append("\n\n");
+                output.append("\n\n");
+            }
+            source.append("// ")
+                .append(r.markedFile().getName())
+                .append('\n')
+                .append(contents);
+            output.append("// ")
+                .append(r.markedFile().getName())
+                .append('\n')
+                .append(r.output());
+        }
+        return new Preview(source.toString(), output.toString());
+    }
+
+}
@@ -0,0 +1,222 @@
+/**
+ * Copyright 2017 University of Victoria
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package com.rigiresearch.gradebuddy.ui;
+
+import com.rigiresearch.gradebuddy.model.Result;
+import com.rigiresearch.gradebuddy.model.SimilarSubmission;
+import com.rigiresearch.gradebuddy.model.Submission;
+import com.rigiresearch.gradebuddy.model.Usage;
+import java.util.List;
+
+/**
+ * Sorting and filtering keys of the submission table, precomputed per
+ * column: the marks as primitive arrays and the text in lower case.
+ * @author Miguel Jimenez (miguel@uvic.ca)
+ * @date 2017-11-11
+ * @version $Id$
+ * @since 0.0.1
+ */
+public final class SubmissionKeys {
+
+    /**
+     * The table model.
+     */
+    private final SubmissionTableModel model;
+
+    /**
+     * The lower-cased student ids, per row.
+     */
+    private final String[] ids;
+
+    /**
+     * The marks per part and row (NaN while pending).
+     */
+    private final double[][] marks;
+
+    /**
+     * The lower-cased feedback per part and row.
+     */
+    private final String[][] feedback;
+
+    /**
+     * Computes the keys of every row.
+     * @param model The table model
+     */
+    public SubmissionKeys(final SubmissionTableModel model) {
+        this.model = model;
+        final int rows = model.getRowCount();
+        final int parts = rows == 0 ? 0
+            : model.submissions().get(0).results().size();
+        this.ids = new String[rows];
+        this.marks = new double[parts][rows];
+        this.feedback = new String[parts][rows];
+        for (int row = 0; row < rows; row++)
+            this.update(row);
+    }
+
+    /**
+     * Copies the keys of another instance.
+     * @param keys The keys to copy
+     */
+    private SubmissionKeys(final SubmissionKeys keys) {
+        this.model = keys.model;
+        this.ids = keys.ids.clone();
+        this.marks = new double[keys.marks.length][];
+        this.feedback = new String[keys.feedback.length][];
+        for (int part = 0; part < keys.marks.length; part++) {
+            this.marks[part] = keys.marks[part].clone();
+            this.feedback[part] = keys.feedback[part].clone();
+        }
+    }
+
+    /**
+     * Copies the keys, so that the copy can be read from another thread
+     * while the rows are updated. The sorting keys read from the model
+     * ({@link #value(int, int)}) must still be read on the Event Dispatch
+     * Thread.
+     * @return A copy of the keys
+     */
+    public SubmissionKeys snapshot() {
+        return new SubmissionKeys(this);
+    }
+
+    /**
+     * Computes the keys of a row again, after its content changed.
+     * @param row The model row index
+     */
+    public void update(final int row) {
+        final Submission submission = this.model.submissions().get(row);
+        this.ids[row] = submission.studentId().toLowerCase();
+        for (int part = 0; part < this.marks.length; part++) {
+            final Result result = submission.results().get(part);
+            this.marks[part][row] = result.pending() ?
+                Double.NaN : result.marks();
+            this.feedback[part][row] = result.pending() ?
+                "" : result.feedback().toLowerCase();
+        }
+    }
+
+    /**
+     * The number of rows.
+     * @return The number of rows
+     */
+    public int rows() {
+        return this.ids.length;
+    }
+
+    /**
+     * The number of parts.
+     * @return The number of parts
+     */
+    public int parts() {
+        return this.marks.length;
+    }
+
+    /**
+     * The lower-cased student id of a row.
+     * @param row The model row index
+     * @return The student id
+     */
+    public String id(final int row) {
+        return this.ids[row];
+    }
+
+    /**
+     * The marks of a row.
+     * @param part The part index
+     * @param row The model row index
+     * @return The marks, or NaN if the part is pending
+     */
+    public double marks(final int part, final int row) {
+        return this.marks[part][row];
+    }
+
+    /**
+     * The lower-cased feedback of a row.
+     * @param part The part index
+     * @param row The model row index
+     * @return The feedback
+     */
+    public String feedback(final int part, final int row) {
+        return this.feedback[part][row];
+    }
+
+    /**
+     * The sorting key of a cell.
+     * @param row The model row index
+     * @param column The model column index
+     * @return A key comparable with the keys of the same column
+     */
+    public Comparable<?> value(final int row, final int column) {
+        final int parts = this.parts();
+        if (column == 0)
+            return this.ids[row];
+        else if (this.model.isSimilarityColumn(column))
+            return this.similarity(row);
+        else if (column >= 1 + parts * 2)
+            return this.usage(row, column - 1 - parts * 2);
+        else if (column % 2 != 0)
+            return this.marks[column / 2][row];
+        else
+            return this.feedback[column / 2 - 1][row];
+    }
+
+    /**
+     * The sorting key of a similar submissions cell: the highest similarity.
+     * @param row The model row index
+     * @return The highest similarity, or 0 if there are no similar
+     *  submissions
+     */
+    private Double similarity(final int row) {
+        final List<SimilarSubmission> similar = this.model.submissions()
+            .get(row)
+            .similar();
+        return similar.isEmpty() ? 0d : similar.get(0).similarity();
+    }
+
+    /**
+     * The sorting key of a resource usage cell, read from the result since
+     * these columns are seldom displayed.
+     * @param row The model row index
+     * @param index The index of the usage column, starting from the first
+     *  usage column
+     * @return The amount, or NaN if unknown
+     */
+    private double usage(final int row, final int index) {
+        final Usage usage = this.model.submissions()
+            .get(row)
+            .results()
+            .get(index / SubmissionTableModel.USAGE_COLUMNS)
+            .usage();
+        if (usage == null)
+            return Double.NaN;
+        switch (index % SubmissionTableModel.USAGE_COLUMNS) {
+            case 0:
+                return usage.cpu();
+            case 1:
+                return usage.wall();
+            default:
+                return usage.peakRss() < 0 ? Double.NaN : usage.peakRss();
+        }
+    }
+
+}
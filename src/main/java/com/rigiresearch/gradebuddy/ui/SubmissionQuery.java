@@ -0,0 +1,187 @@
+/**
+ * Copyright 2017 University of Victoria
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package com.rigiresearch.gradebuddy.ui;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A filter over the submission table. Conditions on the marks of a part
+ * (e.g., {@code P3 < 50}) and text terms, matched against the student id and
+ * the feedback (e.g., {@code timeout} or {@code "wrong output"}), must all
+ * hold for a row to be included.
+ * @author Miguel Jimenez (miguel@uvic.ca)
+ * @date 2017-11-11
+ * @version $Id$
+ * @since 0.0.1
+ */
+public final class SubmissionQuery {
+
+    /**
+     * A condition on the marks of a part.
+     */
+    private static final Pattern COMPARISON = Pattern.compile(
+        "(?i)\\bP(\\d+)\\s*(<=|>=|!=|<|>|=)\\s*(-?\\d+(?:\\.\\d+)?)"
+    );
+
+    /**
+     * A quoted phrase or a single word.
+     */
+    private static final Pattern TERM = Pattern.compile("\"([^\"]*)\"|(\\S+)");
+
+    /**
+     * The part index of each condition.
+     */
+    private final List<Integer> parts = new ArrayList<>();
+
+    /**
+     * The operator of each condition.
+     */
+    private final List<String> operators = new ArrayList<>();
+
+    /**
+     * The value of each condition.
+     */
+    private final List<Double> values = new ArrayList<>();
+
+    /**
+     * The lower-cased text terms.
+     */
+    private final List<String> terms = new ArrayList<>();
+
+    /**
+     * Default constructor.
+     * @param text The filter text
+     */
+    public SubmissionQuery(final String text) {
+        final Matcher comparison = SubmissionQuery.COMPARISON.matcher(text);
+        final StringBuffer rest = new StringBuffer();
+        while (comparison.find()) {
+            this.parts.add(Integer.parseInt(comparison.group(1)) - 1);
+            this.operators.add(comparison.group(2));
+            this.values.add(Double.parseDouble(comparison.group(3)));
+            comparison.appendReplacement(rest, " ");
+        }
+        comparison.appendTail(rest);
+        final Matcher term = SubmissionQuery.TERM.matcher(rest);
+        while (term.find()) {
+            final String value = term.group(1) == null ?
+                term.group(2) : term.group(1);
+            if (!value.isEmpty())
+                this.terms.add(value.toLowerCase());
+        }
+    }
+
+    /**
+     * Whether this query has no conditions.
+     * @return Whether every row matches
+     */
+    public boolean isEmpty() {
+        return this.parts.isEmpty() && this.terms.isEmpty();
+    }
+
+    /**
+     * Finds the rows matching this query.
+     * @param keys The keys of the submission table
+     * @return The matching model rows
+     */
+    public BitSet evaluate(final SubmissionKeys keys) {
+        final BitSet matches = new BitSet(keys.rows());
+        for (int row = 0; row < keys.rows(); row++) {
+            if (this.matches(keys, row))
+                matches.set(row);
+        }
+        return matches;
+    }
+
+    /**
+     * Whether a row matches this query.
+     * @param keys The keys of the submission table
+     * @param row The model row index
+     * @return Whether every condition holds
+     */
+    private boolean matches(final SubmissionKeys keys, final int row) {
+        for (int i = 0; i < this.parts.size(); i++) {
+            final int part = this.parts.get(i);
+            if (part < 0 || part >= keys.parts())
+                return false;
+            final double marks = keys.marks(part, row);
+            // Pending parts match no condition
+            if (Double.isNaN(marks)
+                || !SubmissionQuery.holds(marks, this.operators.get(i),
+                    this.values.get(i)))
+                return false;
+        }
+        for (String term : this.terms) {
+            if (!this.contains(keys, row, term))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Whether the student id or any feedback of a row contains a term.
+     * @param keys The keys of the submission table
+     * @param row The model row index
+     * @param term The lower-cased term
+     * @return Whether the row contains the term
+     */
+    private boolean contains(final SubmissionKeys keys, final int row,
+        final String term) {
+        if (keys.id(row).contains(term))
+            return true;
+        for (int part = 0; part < keys.parts(); part++) {
+            if (keys.feedback(part, row).contains(term))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Evaluates a comparison.
+     * @param marks The marks
+     * @param operator The comparison operator
+     * @param value The value to compare with
+     * @return Whether the comparison holds
+     */
+    private static boolean holds(final double marks, final String operator,
+        final double value) {
+        switch (operator) {
+            case "<":
+                return marks < value;
+            case "<=":
+                return marks <= value;
+            case ">":
+                return marks > value;
+            case ">=":
+                return marks >= value;
+            case "!=":
+                return marks != value;
+            default:
+                return marks == value;
+        }
+    }
+
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright 2017 University of Victoria
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package com.rigiresearch.gradebuddy.ui;
+
+import java.util.Comparator;
+import javax.swing.DefaultRowSorter;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+/**
+ * Sorts the submission table using the precomputed {@link SubmissionKeys}
+ * instead of the displayed values. The keys of a row are refreshed whenever
+ * the model reports a change to it.
+ * @author Miguel Jimenez (miguel@uvic.ca)
+ * @date 2017-11-11
+ * @version $Id$
+ * @since 0.0.1
+ */
+@Accessors(fluent = true)
+public final class SubmissionSorter
+    extends DefaultRowSorter<SubmissionTableModel, Integer> {
+
+    /**
+     * Compares keys of the same column.
+     */
+    @SuppressWarnings("unchecked")
+    private static final Comparator<Object> NATURAL =
+        (a, b) -> ((Comparable<Object>) a).compareTo(b);
+
+    /**
+     * The table model.
+     */
+    private final SubmissionTableModel model;
+
+    /**
+     * The keys used for sorting, also used for filtering. They must only be
+     * accessed from the Event Dispatch Thread.
+     */
+    @Getter
+    private SubmissionKeys keys;
+
+    /**
+     * Default constructor.
+     * @param model The table model
+     */
+    public SubmissionSorter(final SubmissionTableModel model) {
+        this.model = model;
+        this.keys = new SubmissionKeys(model);
+        this.setModelWrapper(
+            new ModelWrapper<SubmissionTableModel, Integer>() {
+                @Override
+                public SubmissionTableModel getModel() {
+                    return SubmissionSorter.this.model;
+                }
+                @Override
+                public int getColumnCount() {
+                    return SubmissionSorter.this.model.getColumnCount();
+                }
+                @Override
+                public int getRowCount() {
+                    return SubmissionSorter.this.model.getRowCount();
+                }
+                @Override
+                public Object getValueAt(final int row, final int column) {
+                    return SubmissionSorter.this.keys.value(row, column);
+                }
+                @Override
+                public Integer getIdentifier(final int row) {
+                    return row;
+                }
+            }
+        );
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see javax.swing.DefaultRowSorter#getComparator(int)
+     */
+    @Override
+    public Comparator<?> getComparator(final int column) {
+        return SubmissionSorter.NATURAL;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see javax.swing.DefaultRowSorter#rowsUpdated(int, int)
+     */
+    @Override
+    public void rowsUpdated(final int firstRow, final int endRow) {
+        this.update(firstRow, endRow);
+        super.rowsUpdated(firstRow, endRow);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see javax.swing.DefaultRowSorter#rowsUpdated(int, int, int)
+     */
+    @Override
+    public void rowsUpdated(final int firstRow, final int endRow,
+        final int column) {
+        this.update(firstRow, endRow);
+        super.rowsUpdated(firstRow, endRow, column);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see javax.swing.DefaultRowSorter#allRowsChanged()
+     */
+    @Override
+    public void allRowsChanged() {
+        this.keys = new SubmissionKeys(this.model);
+        super.allRowsChanged();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see javax.swing.DefaultRowSorter#modelStructureChanged()
+     */
+    @Override
+    public void modelStructureChanged() {
+        this.keys = new SubmissionKeys(this.model);
+        super.modelStructureChanged();
+    }
+
+    /**
+     * Refreshes the keys of a range of rows.
+     * @param firstRow The first model row
+     * @param endRow The last model row
+     */
+    private void update(final int firstRow, final int endRow) {
+        for (int row = firstRow; row <= endRow && row < this.keys.rows(); row++)
+            this.keys.update(row);
+    }
+
+}
@@ -23,9 +23,18 @@ package com.rigiresearch.gradebuddy.ui;
 
 import com.rigiresearch.gradebuddy.model.Submission;
 import java.awt.Component;
+import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.event.MouseEvent;
+import java.util.BitSet;
 import java.util.List;
 import javax.swing.JTable;
+import javax.swing.JViewport;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.RowSorterEvent;
+import javax.swing.event.TableModelEvent;
 import javax.swing.table.TableColumn;
 import lombok.Getter;
 import lombok.experimental.Accessors;
@@ -56,6 +65,27 @@ public final class SubmissionTable extends JTable {
      */
     private final SubmissionTableModel model;
 
+    /**
+     * Sorts and filters the rows.
+     */
+    private final SubmissionSorter sorter;
+
+    /**
+     * Model rows whose height is up to date with their content. Heights are
+     * computed lazily, only for the rows scrolled into view.
+     */
+    private final BitSet measured = new BitSet();
+
+    /**
+     * Measures the rows scrolled into view whenever the viewport changes.
+     */
+    private final ChangeListener viewportListener = e -> this.measureVisible();
+
+    /**
+     * Whether a measurement of the visible rows is already scheduled.
+     */
+    private boolean scheduled;
+
     /**
      * Default constructor.
      */
@@ -63,16 +93,107 @@ public final class SubmissionTable extends JTable {
         this.submissions = submissions;
         this.model = new SubmissionTableModel(this.submissions);
         this.setModel(model);
+        this.sorter = new SubmissionSorter(this.model);
+        this.setRowSorter(this.sorter);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see javax.swing.JTable#createDefaultColumnsFromModel()
+     */
+    @Override
+    public void createDefaultColumnsFromModel() {
+        super.createDefaultColumnsFromModel();
+        if (!(this.getModel() instanceof SubmissionTableModel))
+            return;
+        final SubmissionTableModel model =
+            (SubmissionTableModel) this.getModel();
         for (int i = 0; i < this.getColumnModel().getColumnCount(); i++) {
             final TableColumn column = getColumnModel().getColumn(i);
-            if (i % 2 == 0) {
+            if (model.isTextColumn(i)) {
                 column.setCellRenderer(new TextAreaCellRenderer());
                 column.setCellEditor(new TextAreaCellEditor());
             }
+            if (this.getRowCount() > 0) {
+                column.setPreferredWidth(
+                    this.prepareRenderer(this.getCellRenderer(0, i), 0, i)
+                        .getPreferredSize()
+                        .width
+                );
+            }
         }
         this.updateRowDimensions();
     }
 
+    /*
+     * (non-Javadoc)
+     * @see javax.swing.JTable#tableChanged(javax.swing.event.TableModelEvent)
+     */
+    @Override
+    public void tableChanged(final TableModelEvent e) {
+        super.tableChanged(e);
+        // Invoked by the JTable constructor, before this class is initialized
+        if (this.measured == null)
+            return;
+        if (e == null || e.getFirstRow() == TableModelEvent.HEADER_ROW
+            || e.getLastRow() == Integer.MAX_VALUE) {
+            this.measured.clear();
+        } else if (e.getType() == TableModelEvent.UPDATE) {
+            this.measured.clear(e.getFirstRow(), e.getLastRow() + 1);
+        } else {
+            // Inserted or deleted rows shift the following ones
+            this.measured.clear(e.getFirstRow(), Integer.MAX_VALUE);
+        }
+        this.scheduleMeasurement();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see javax.swing.JTable#sorterChanged(javax.swing.event.RowSorterEvent)
+     */
+    @Override
+    public void sorterChanged(final RowSorterEvent e) {
+        super.sorterChanged(e);
+        // Rows may have moved into view
+        if (e.getType() == RowSorterEvent.Type.SORTED)
+            this.updateRowDimensions();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see javax.swing.JTable#columnMarginChanged(javax.swing.event.ChangeEvent)
+     */
+    @Override
+    public void columnMarginChanged(final ChangeEvent e) {
+        super.columnMarginChanged(e);
+        // Wrapped text takes a different height once a column is resized
+        this.updateRowDimensions();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see javax.swing.JTable#addNotify()
+     */
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        if (this.getParent() instanceof JViewport)
+            ((JViewport) this.getParent())
+                .addChangeListener(this.viewportListener);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see javax.swing.JTable#removeNotify()
+     */
+    @Override
+    public void removeNotify() {
+        if (this.getParent() instanceof JViewport)
+            ((JViewport) this.getParent())
+                .removeChangeListener(this.viewportListener);
+        super.removeNotify();
+    }
+
     /*
      * (non-Javadoc)
      * @see javax.swing.JTable#getToolTipText(java.awt.event.MouseEvent)
@@ -82,24 +203,34 @@ public final class SubmissionTable extends JTable {
         final int rowIndex = rowAtPoint(e.getPoint());
         final int columnIndex = columnAtPoint(e.getPoint());
         if (rowIndex > -1 && columnIndex == 0)
-            return this.submissions.get(rowIndex)
+            return this.submissions.get(this.convertRowIndexToModel(rowIndex))
                 .directory()
                 .getAbsolutePath();
+        if (rowIndex > -1 && columnIndex > -1) {
+            final String details = this.model.details(
+                this.convertRowIndexToModel(rowIndex),
+                this.convertColumnIndexToModel(columnIndex)
+            );
+            if (details != null)
+                return details;
+        }
         return super.getToolTipText(e);
     }
 
     /**
-     * Updates height and width of columns in all rows.
+     * Invalidates the height of all rows. Only the visible ones are measured
+     * again right away; the rest are measured when scrolled into view.
      */
     public void updateRowDimensions() {
-        for (int row = 0; row < this.getRowCount(); row++) {
-            this.updateRowDimension(row);
-        }
+        if (this.measured == null)
+            return;
+        this.measured.clear();
+        this.scheduleMeasurement();
     }
 
     /**
-     * Updates height and width of columns in a particular row.
-     * @param row The row to update
+     * Updates the height of a particular row.
+     * @param row The row to update, in view coordinates
      */
     public void updateRowDimension(final int row) {
         int rowHeight = this.getRowHeight();
@@ -109,12 +240,59 @@ public final class SubmissionTable extends JTable {
                 row,
                 column
             );
+            // Wrap the text to the column width before measuring it
+            c.setSize(
+                this.getColumnModel().getColumn(column).getWidth(),
+                Short.MAX_VALUE
+            );
             rowHeight = Math.max(rowHeight, c.getPreferredSize().height);
-            this.getColumnModel()
-                .getColumn(column)
-                .setPreferredWidth(c.getPreferredSize().width);
         }
-        this.setRowHeight(row, rowHeight);
+        if (this.getRowHeight(row) != rowHeight)
+            this.setRowHeight(row, rowHeight);
+        this.measured.set(this.convertRowIndexToModel(row));
+    }
+
+    /**
+     * Measures the visible rows later on the Event Dispatch Thread, once per
+     * burst of changes.
+     */
+    private void scheduleMeasurement() {
+        if (this.scheduled)
+            return;
+        this.scheduled = true;
+        SwingUtilities.invokeLater(() -> {
+            this.scheduled = false;
+            this.measureVisible();
+        });
+    }
+
+    /**
+     * Updates the height of the rows in view whose content changed since
+     * they were last measured.
+     */
+    private void measureVisible() {
+        final Rectangle visible = this.getVisibleRect();
+        if (visible.isEmpty())
+            return;
+        final int first = Math.max(0, this.rowAtPoint(visible.getLocation()));
+        // Measuring a row may bring the following ones into or out of view
+        for (int row = first; row < this.getRowCount()
+            && row <= this.lastVisibleRow(visible); row++) {
+            if (!this.measured.get(this.convertRowIndexToModel(row)))
+                this.updateRowDimension(row);
+        }
+    }
+
+    /**
+     * The last row within a rectangle.
+     * @param visible The rectangle
+     * @return The row index
+     */
+    private int lastVisibleRow(final Rectangle visible) {
+        final int row = this.rowAtPoint(
+            new Point(visible.x, visible.y + visible.height - 1)
+        );
+        return row < 0 ? this.getRowCount() - 1 : row;
     }
 
     /**
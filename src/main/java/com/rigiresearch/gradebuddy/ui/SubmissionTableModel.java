@@ -21,11 +21,21 @@
  */
 package com.rigiresearch.gradebuddy.ui;
 
+import com.rigiresearch.gradebuddy.model.Result;
+import com.rigiresearch.gradebuddy.model.SimilarSubmission;
 import com.rigiresearch.gradebuddy.model.Submission;
+import com.rigiresearch.gradebuddy.model.TestResult;
+import com.rigiresearch.gradebuddy.model.Usage;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.swing.Timer;
 import javax.swing.table.AbstractTableModel;
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
 import lombok.experimental.Accessors;
 
 /**
@@ -36,7 +46,6 @@ import lombok.experimental.Accessors;
  * @since 0.0.1
  */
 @Accessors(fluent = true)
-@RequiredArgsConstructor
 @Getter
 public final class SubmissionTableModel extends AbstractTableModel {
 
@@ -45,11 +54,180 @@ public final class SubmissionTableModel extends AbstractTableModel {
      */
     private static final long serialVersionUID = -6845147945555926643L;
 
+    /**
+     * Number of resource usage columns per part (CPU, wall time and RSS).
+     */
+    static final int USAGE_COLUMNS = 3;
+
+    /**
+     * Time (in milliseconds) during which row changes are batched, about one
+     * frame.
+     */
+    private static final int COALESCE_DELAY = 16;
+
     /**
      * The list of submissions.
      */
     private final List<Submission> submissions;
 
+    /**
+     * The row of each submission.
+     */
+    private final Map<Submission, Integer> rows = new IdentityHashMap<>();
+
+    /**
+     * Whether the resource usage columns are displayed.
+     */
+    private boolean usage;
+
+    /**
+     * Whether the similar submissions column is displayed, i.e., whether
+     * similarity was checked.
+     */
+    private final boolean similarity;
+
+    /**
+     * Transient status of submissions being processed (e.g., re-marked),
+     * displayed below the student id.
+     */
+    private final Map<Submission, String> status = new HashMap<>();
+
+    /**
+     * Submissions changed since the table was last notified.
+     */
+    private final Set<Submission> dirty =
+        Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * Notifies the table of the changed submissions, at most once per
+     * {@link #COALESCE_DELAY}.
+     */
+    private final Timer coalescer = new Timer(
+        SubmissionTableModel.COALESCE_DELAY,
+        e -> this.flush()
+    );
+
+    /**
+     * Default constructor.
+     * @param submissions The list of submissions
+     */
+    public SubmissionTableModel(final List<Submission> submissions) {
+        this.submissions = submissions;
+        for (int i = 0; i < submissions.size(); i++)
+            this.rows.put(submissions.get(i), i);
+        this.similarity = !submissions.isEmpty()
+            && submissions.get(0).similar() != null;
+        this.coalescer.setRepeats(false);
+    }
+
+    /**
+     * Records that the results of a submission changed. The table is updated
+     * shortly after, together with any other submission changed meanwhile.
+     * This method may be called from any thread.
+     * @param submission The submission
+     */
+    public void changed(final Submission submission) {
+        final boolean first;
+        synchronized (this.dirty) {
+            first = this.dirty.isEmpty();
+            this.dirty.add(submission);
+        }
+        if (first)
+            this.coalescer.restart();
+    }
+
+    /**
+     * Sets the marks and feedback of a part of several submissions at once,
+     * e.g., of a cluster of submissions with the same output. The rows are
+     * updated with a single event spanning all of them, rather than one per
+     * row or range. This method must be called from the Event Dispatch
+     * Thread.
+     * @param submissions The submissions
+     * @param part The part index
+     * @param marks The marks, or null to keep the current ones
+     * @param feedback The feedback, or null to keep the current one
+     */
+    public void update(final List<Submission> submissions, final int part,
+        final Double marks, final String feedback) {
+        int first = Integer.MAX_VALUE;
+        int last = -1;
+        for (Submission submission : submissions) {
+            final Result result = submission.results().get(part);
+            final int row = this.row(submission);
+            if (result.pending() || row < 0)
+                continue;
+            if (marks != null)
+                result.marks(marks);
+            if (feedback != null)
+                result.feedback(feedback);
+            first = Math.min(first, row);
+            last = Math.max(last, row);
+        }
+        if (last >= 0)
+            this.fireTableRowsUpdated(first, last);
+    }
+
+    /**
+     * Sets or clears the status of a submission.
+     * @param submission The submission
+     * @param status The status, or null to clear it
+     */
+    public void status(final Submission submission, final String status) {
+        if (status == null)
+            this.status.remove(submission);
+        else
+            this.status.put(submission, status);
+        this.triggerRowUpdate(submission);
+    }
+
+    /**
+     * Shows or hides the resource usage columns.
+     * @param usage Whether to show the resource usage
+     */
+    public void showUsage(final boolean usage) {
+        this.usage = usage;
+        this.fireTableStructureChanged();
+    }
+
+    /**
+     * Whether the resource usage columns are displayed.
+     * @return Whether the resource usage is shown
+     */
+    public boolean showsUsage() {
+        return this.usage;
+    }
+
+    /**
+     * Whether a column displays resource usage.
+     * @param columnIndex The column index
+     * @return Whether the column is a resource usage column
+     */
+    public boolean isUsageColumn(final int columnIndex) {
+        return columnIndex >= 1 + this.parts() * 2
+            && !this.isSimilarityColumn(columnIndex);
+    }
+
+    /**
+     * Whether a column displays the similar submissions (the last column,
+     * if similarity was checked).
+     * @param columnIndex The column index
+     * @return Whether the column is the similar submissions column
+     */
+    public boolean isSimilarityColumn(final int columnIndex) {
+        return this.similarity && columnIndex == this.getColumnCount() - 1;
+    }
+
+    /**
+     * Whether a column displays multi-line text (the student id and the
+     * feedback columns).
+     * @param columnIndex The column index
+     * @return Whether the column contains text
+     */
+    public boolean isTextColumn(final int columnIndex) {
+        return this.isSimilarityColumn(columnIndex)
+            || !this.isUsageColumn(columnIndex) && columnIndex % 2 == 0;
+    }
+
     /* (non-Javadoc)
      * @see javax.swing.table.TableModel#getRowCount()
      */
@@ -63,8 +241,11 @@ public final class SubmissionTableModel extends AbstractTableModel {
      */
     @Override
     public int getColumnCount() {
-        // Student id + results * (marks, feedback)
-        return 1 + this.submissions.get(0).results().size() * 2;
+        // Student id + results * (marks, feedback) [+ results * usage]
+        // [+ similar submissions]
+        return 1 + this.parts() * 2
+            + (this.usage ? this.parts() * USAGE_COLUMNS : 0)
+            + (this.similarity ? 1 : 0);
     }
 
     /*
@@ -75,7 +256,16 @@ public final class SubmissionTableModel extends AbstractTableModel {
     public String getColumnName(int columnIndex) {
         if (columnIndex == 0)
             return "Student ID";
-        else if (columnIndex % 2 != 0)
+        else if (this.isSimilarityColumn(columnIndex))
+            return "Similar to";
+        else if (this.isUsageColumn(columnIndex)) {
+            final int index = columnIndex - 1 - this.parts() * 2;
+            return String.format(
+                new String[] {"CPU (P%d)", "Wall (P%d)", "RSS (P%d)"}
+                    [index % USAGE_COLUMNS],
+                index / USAGE_COLUMNS + 1
+            );
+        } else if (columnIndex % 2 != 0)
             return String.format("Marks (P%d)", columnIndex/2 + 1);
         else {
             return String.format("Feedback (P%d)", columnIndex/2);
@@ -88,12 +278,20 @@ public final class SubmissionTableModel extends AbstractTableModel {
     @Override
     public Object getValueAt(int rowIndex, int columnIndex) {
         final Submission submission = this.submissions.get(rowIndex);
-        if (columnIndex == 0)
-            return submission.studentId();
-        else if (columnIndex % 2 != 0)
-            return submission.results().get(columnIndex/2).marks();
-        else {
-            return submission.results().get(columnIndex/2 - 1).feedback();
+        if (columnIndex == 0) {
+            final String status = this.status.get(submission);
+            return status == null ? submission.studentId()
+                : String.format("%s\n(%s)", submission.studentId(), status);
+        } else if (this.isSimilarityColumn(columnIndex))
+            return this.similar(submission);
+        else if (this.isUsageColumn(columnIndex))
+            return this.usage(submission, columnIndex - 1 - this.parts() * 2);
+        else if (columnIndex % 2 != 0) {
+            final Result result = submission.results().get(columnIndex/2);
+            return result.pending() ? "" : result.marks();
+        } else {
+            final Result result = submission.results().get(columnIndex/2 - 1);
+            return result.pending() ? "Pending..." : result.feedback();
         }
     }
 
@@ -103,7 +301,12 @@ public final class SubmissionTableModel extends AbstractTableModel {
      */
     @Override
     public boolean isCellEditable(int rowIndex, int columnIndex) {
-        return columnIndex > 0;
+        return columnIndex > 0 && !this.isUsageColumn(columnIndex)
+            && !this.isSimilarityColumn(columnIndex)
+            && !this.submissions.get(rowIndex)
+                .results()
+                .get((columnIndex - 1) / 2)
+                .pending();
     }
 
     /*
@@ -125,15 +328,151 @@ public final class SubmissionTableModel extends AbstractTableModel {
         this.fireTableCellUpdated(rowIndex, columnIndex);
     }
 
+    /**
+     * The row of a submission.
+     * @param submission The submission
+     * @return The row index, or -1 if the submission is not in the table
+     */
+    public int row(final Submission submission) {
+        final Integer row = this.rows.get(submission);
+        return row == null ? -1 : row;
+    }
+
+    /**
+     * Describes how the marks of a cell were obtained: whether they come
+     * from the retry phase, and the result of each test case.
+     * @param rowIndex The row index
+     * @param columnIndex The column index
+     * @return An HTML description, or null if the cell is not the marks of a
+     *  part or there is nothing to describe
+     */
+    public String details(final int rowIndex, final int columnIndex) {
+        if (this.isUsageColumn(columnIndex)
+            || this.isSimilarityColumn(columnIndex) || columnIndex % 2 == 0)
+            return null;
+        final Result result = this.submissions.get(rowIndex)
+            .results()
+            .get(columnIndex/2);
+        if (result.pending() || !result.retried() && result.tests() == null)
+            return null;
+        final StringBuilder html = new StringBuilder("<html>");
+        if (result.retried())
+            html.append("Re-marked after a timeout");
+        if (result.tests() == null)
+            return html.append("</html>").toString();
+        html.append("<table>");
+        for (TestResult test : result.tests()) {
+            html.append(
+                String.format(
+                    "<tr><td>%s</td><td>%s</td><td>%.0f%%</td>"
+                    + "<td>&times;%s</td></tr>",
+                    SubmissionTableModel.escape(test.name()),
+                    test.passed() ? "passed" :
+                        test.timedOut() ? "timeout" : "failed",
+                    test.score() * 100d,
+                    test.weight()
+                )
+            );
+        }
+        return html.append("</table></html>").toString();
+    }
+
+    /**
+     * Escapes text to be displayed as HTML.
+     * @param text The text
+     * @return The escaped text
+     */
+    private static String escape(final String text) {
+        return text.replace("&", "&amp;")
+            .replace("<", "&lt;")
+            .replace(">", "&gt;");
+    }
+
+    /**
+     * Updates the rows of the submissions changed since the last call, with
+     * one event per range of consecutive rows.
+     */
+    private void flush() {
+        final int[] changed;
+        synchronized (this.dirty) {
+            changed = new int[this.dirty.size()];
+            int i = 0;
+            for (Submission submission : this.dirty)
+                changed[i++] = this.row(submission);
+            this.dirty.clear();
+        }
+        Arrays.sort(changed);
+        int i = 0;
+        // Skip submissions that are not in the table
+        while (i < changed.length && changed[i] < 0)
+            i++;
+        while (i < changed.length) {
+            int j = i;
+            while (j + 1 < changed.length && changed[j + 1] <= changed[j] + 1)
+                j++;
+            this.fireTableRowsUpdated(changed[i], changed[j]);
+            i = j + 1;
+        }
+    }
+
+    /**
+     * The number of marked parts.
+     * @return The number of results per submission
+     */
+    private int parts() {
+        return this.submissions.get(0).results().size();
+    }
+
+    /**
+     * Formats the resource usage of a submission part.
+     * @param submission The submission
+     * @param index The index of the usage column, starting from the first
+     *  usage column
+     * @return The formatted value
+     */
+    private String usage(final Submission submission, final int index) {
+        final Usage usage = submission.results()
+            .get(index / USAGE_COLUMNS)
+            .usage();
+        if (usage == null)
+            return "";
+        switch (index % USAGE_COLUMNS) {
+            case 0:
+                return String.format("%.2f s", usage.cpu() / 1000d);
+            case 1:
+                return String.format("%.2f s", usage.wall() / 1000d);
+            default:
+                return usage.peakRss() < 0 ? "?" :
+                    String.format("%.1f MiB", usage.peakRss() / 1024d);
+        }
+    }
+
+    /**
+     * Lists the submissions similar to a submission, one per line.
+     * @param submission The submission
+     * @return The student ids and similarities
+     */
+    private String similar(final Submission submission) {
+        final StringBuilder builder = new StringBuilder();
+        for (SimilarSubmission similar : submission.similar()) {
+            builder.append(
+                String.format(
+                    "%s%s (%.0f%%)",
+                    builder.length() == 0 ? "" : "\n",
+                    similar.submission().studentId(),
+                    similar.similarity() * 100d
+                )
+            );
+        }
+        return builder.toString();
+    }
+
     /**
      * Updates the submission data on the table.
      * @param submission The submission
      */
     public void triggerRowUpdate(final Submission submission) {
-        int r = this.submissions.indexOf(submission);
-        for (int c = 0; c < this.getColumnCount(); c++) {
-            this.fireTableCellUpdated(r, c);
-        }
+        this.changed(submission);
     }
 
 }
@@ -22,6 +22,7 @@
 package com.rigiresearch.gradebuddy.ui;
 
 import com.rigiresearch.gradebuddy.io.AutomatedMarking;
+import com.rigiresearch.gradebuddy.io.Scheduler;
 import com.rigiresearch.gradebuddy.model.CsvReport;
 import com.rigiresearch.gradebuddy.model.Submission;
 import java.awt.BorderLayout;
@@ -33,15 +34,19 @@ import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.function.Function;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JToolBar;
-import javax.swing.ListSelectionModel;
-import javax.swing.event.ListSelectionEvent;
-import javax.swing.event.ListSelectionListener;
+import javax.swing.SwingUtilities;
 import lombok.Getter;
 import lombok.experimental.Accessors;
 
@@ -82,9 +87,30 @@ public final class Toolbar extends JPanel implements ActionListener {
     private JToolBar toolBar;
 
     /**
-     * The current selected row index.
+     * Button to re-mark the selected submissions.
      */
-    private int selectedRow = -1;
+    private JButton mark;
+
+    /**
+     * Button to cancel the re-marking.
+     */
+    private JButton cancel;
+
+    /**
+     * Displays the re-marking progress.
+     */
+    private JProgressBar progress;
+
+    /**
+     * The scheduler re-marking submissions in the background, if any.
+     */
+    private Scheduler remarking;
+
+    /**
+     * Whether the marking of every submission is still running, in which
+     * case the selected submissions cannot be re-marked yet.
+     */
+    private boolean busy;
 
     /**
      * Default constructor.
@@ -100,7 +126,19 @@ public final class Toolbar extends JPanel implements ActionListener {
         this.marking = marking;
         this.onMarking = onMarking;
         this.initialize();
-        this.configure();
+    }
+
+    /**
+     * Enables or disables re-marking while the marking of every submission
+     * is running, as both would run scripts on the same submissions.
+     * @param busy Whether the marking is running
+     */
+    public void busy(final boolean busy) {
+        this.busy = busy;
+        this.mark.setEnabled(!busy && this.remarking == null);
+        this.mark.setToolTipText(
+            busy ? "Available once the marking finishes" : null
+        );
     }
 
     /**
@@ -113,31 +151,33 @@ public final class Toolbar extends JPanel implements ActionListener {
         JButton export = new JButton("Export Report");
         export.setActionCommand("export");
         export.addActionListener(this);
-        JButton mark = new JButton("Re-Mark Submission");
-        mark.setActionCommand("mark");
-        mark.addActionListener(this);
+        this.mark = new JButton("Re-Mark Selected");
+        this.mark.setActionCommand("mark");
+        this.mark.addActionListener(this);
+        JButton prioritize = new JButton("Mark Selected First");
+        prioritize.setActionCommand("prioritize");
+        prioritize.addActionListener(this);
+        this.cancel = new JButton("Cancel");
+        this.cancel.setActionCommand("cancel");
+        this.cancel.addActionListener(this);
+        this.cancel.setEnabled(false);
+        this.progress = new JProgressBar();
+        this.progress.setStringPainted(true);
+        this.progress.setVisible(false);
+        JCheckBox usage = new JCheckBox("Show Resource Usage");
+        usage.setActionCommand("usage");
+        usage.addActionListener(this);
         this.toolBar = new JToolBar("Tools");
         this.toolBar.add(backup);
         this.toolBar.add(export);
-        this.toolBar.add(mark);
+        this.toolBar.add(this.mark);
+        this.toolBar.add(prioritize);
+        this.toolBar.add(this.cancel);
+        this.toolBar.add(this.progress);
+        this.toolBar.add(usage);
         this.add(toolBar, BorderLayout.PAGE_START);
     }
 
-    /**
-     * Configure call-backs.
-     */
-    private void configure() {
-        this.table.getSelectionModel()
-            .addListSelectionListener(new ListSelectionListener() {
-                @Override
-                public void valueChanged(ListSelectionEvent e) {
-                    final ListSelectionModel model =
-                        (ListSelectionModel) e.getSource();
-                    Toolbar.this.selectedRow = model.getMinSelectionIndex();
-                }
-            });
-    }
-
     /* (non-Javadoc)
      * @see java.awt.event.ActionListener
      *  #actionPerformed(java.awt.event.ActionEvent)
@@ -149,7 +189,21 @@ public final class Toolbar extends JPanel implements ActionListener {
         } else if (e.getActionCommand() == "export") {
             this.export();
         } else if (e.getActionCommand() == "mark") {
-            this.markSubmission();
+            this.markSelected();
+        } else if (e.getActionCommand() == "prioritize") {
+            final int[] rows = this.table.getSelectedRows();
+            // The last request goes first, so start from the bottom row
+            for (int i = rows.length - 1; i >= 0; i--)
+                this.marking.prioritize(
+                    this.marking.submissions()
+                        .get(this.table.convertRowIndexToModel(rows[i]))
+                );
+        } else if (e.getActionCommand() == "cancel") {
+            this.remarking.cancel();
+        } else if (e.getActionCommand() == "usage") {
+            this.table.model().showUsage(
+                ((JCheckBox) e.getSource()).isSelected()
+            );
         }
     }
 
@@ -204,6 +258,7 @@ public final class Toolbar extends JPanel implements ActionListener {
                 Files.write(
                     Paths.get(file.getAbsolutePath()),
                     new CsvReport(this.marking.submissions())
+                        .usage(this.table.model().showsUsage())
                         .report(true)
                         .getBytes()
                 );
@@ -216,31 +271,82 @@ public final class Toolbar extends JPanel implements ActionListener {
     }
 
     /**
-     * Trigger submission marking.
+     * Re-marks the selected submissions in the background, updating each row
+     * as its parts are marked.
      */
-    private void markSubmission() {
-        if (this.selectedRow == -1) {
+    private void markSelected() {
+        final int[] rows = this.table.getSelectedRows();
+        if (rows.length == 0) {
             JOptionPane.showMessageDialog(
                 this,
-                "Please select a submission on the table.",
+                "Please select one or more submissions on the table.",
                 "Marking error",
                 JOptionPane.ERROR_MESSAGE
             );
             return;
         }
-        final Submission submission = this.marking.submissions()
-            .get(this.selectedRow);
+        final List<Submission> targets = new ArrayList<>();
+        for (int row : rows)
+            targets.add(
+                this.marking.submissions()
+                    .get(this.table.convertRowIndexToModel(row))
+            );
+        final int parts = this.marking.scripts().size();
+        final Map<Submission, Integer> marked = new HashMap<>();
+        for (Submission submission : targets) {
+            marked.put(submission, 0);
+            this.table.model()
+                .status(submission, String.format("re-marking 0/%d", parts));
+        }
         try {
-            submission.results(
-                this.marking.markingResults(
-                    submission.directory()
-                )
+            this.remarking = this.marking.remark(
+                targets,
+                Runtime.getRuntime().availableProcessors(),
+                (submission, result) -> SwingUtilities.invokeLater(() -> {
+                    final int done = marked.merge(submission, 1, Integer::sum);
+                    this.progress.setValue(this.progress.getValue() + 1);
+                    this.table.model().status(
+                        submission,
+                        done < parts ?
+                            String.format("re-marking %d/%d", done, parts)
+                            : null
+                    );
+                    if (done == parts)
+                        this.onMarking.apply(submission);
+                })
+            );
+        } catch (IOException e) {
+            e.printStackTrace();
+            targets.forEach(
+                submission -> this.table.model().status(submission, null)
             );
-            this.table.triggerRowUpdate(submission);
-            this.onMarking.apply(submission);
-        } catch (Exception e1) {
-            e1.printStackTrace();
+            return;
         }
+        this.progress.setMaximum(targets.size() * parts);
+        this.progress.setValue(0);
+        this.progress.setVisible(true);
+        this.mark.setEnabled(false);
+        this.cancel.setEnabled(true);
+        final Scheduler scheduler = this.remarking;
+        final Thread waiter = new Thread(() -> {
+            try {
+                scheduler.await();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            SwingUtilities.invokeLater(() -> {
+                // Rows left behind by a cancellation
+                targets.forEach(
+                    submission -> this.table.model().status(submission, null)
+                );
+                this.progress.setVisible(false);
+                this.mark.setEnabled(!this.busy);
+                this.cancel.setEnabled(false);
+                this.remarking = null;
+            });
+        }, "re-marking");
+        waiter.setDaemon(true);
+        waiter.start();
     }
 
 }
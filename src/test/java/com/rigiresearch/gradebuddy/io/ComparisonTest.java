@@ -0,0 +1,165 @@
+/**
+ * Copyright 2017 University of Victoria
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package com.rigiresearch.gradebuddy.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests how {@link Comparison} normalizes and compares lines.
+ * @author Miguel Jimenez (miguel@uvic.ca)
+ * @date 2017-11-14
+ * @version $Id$
+ * @since 0.0.1
+ */
+public final class ComparisonTest {
+
+    /**
+     * Holds the marking scripts declaring the comparisons.
+     */
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Exact comparisons keep every line as is.
+     * @throws IOException If the script cannot be written
+     */
+    @Test
+    public void keepsLinesWhenExact() throws IOException {
+        final Comparison comparison = this.comparison("whitespace=exact");
+        Assert.assertArrayEquals(
+            new String[] {"a  b ", "", " c"},
+            comparison.normalize("a  b \n\n c")
+        );
+        Assert.assertArrayEquals(
+            new String[] {"a", ""},
+            comparison.normalize("a\n\n")
+        );
+    }
+
+    /**
+     * Trailing whitespace and trailing blank lines are ignored by default.
+     * @throws IOException If the script cannot be written
+     */
+    @Test
+    public void trimsTrailingWhitespaceByDefault() throws IOException {
+        final Comparison comparison = this.comparison("");
+        Assert.assertArrayEquals(
+            new String[] {"a  b", "", " c"},
+            comparison.normalize("a  b \t\r\n\n c\n  \n\n")
+        );
+    }
+
+    /**
+     * Runs of whitespace are collapsed and blank lines dropped.
+     * @throws IOException If the script cannot be written
+     */
+    @Test
+    public void collapsesWhitespaceWhenAll() throws IOException {
+        final Comparison comparison = this.comparison("whitespace=all");
+        Assert.assertArrayEquals(
+            new String[] {"a b", "c d"},
+            comparison.normalize("  a \t b\n\n   \n c  d \n")
+        );
+        Assert.assertArrayEquals(new String[0], comparison.normalize(""));
+    }
+
+    /**
+     * Without a tolerance, only identical lines match.
+     * @throws IOException If the script cannot be written
+     */
+    @Test
+    public void comparesNumbersExactlyWithoutTolerance() throws IOException {
+        final Comparison comparison = this.comparison("");
+        Assert.assertTrue(comparison.equal("x 1.5", "x 1.5"));
+        Assert.assertFalse(comparison.equal("x 1.5", "x 1.50"));
+    }
+
+    /**
+     * Numbers match within the tolerance, relative to the expected number
+     * and absolute below 1.
+     * @throws IOException If the script cannot be written
+     */
+    @Test
+    public void comparesNumbersWithTolerance() throws IOException {
+        final Comparison comparison = this.comparison("tolerance=0.01");
+        Assert.assertTrue(comparison.equal("x 1.5", "x 1.50"));
+        Assert.assertTrue(comparison.equal("x 1000", "x 1009.5"));
+        Assert.assertFalse(comparison.equal("x 1000", "x 1011"));
+        Assert.assertTrue(comparison.equal("0.001", "-0.008"));
+        Assert.assertFalse(comparison.equal("0.001", "0.02"));
+        Assert.assertTrue(comparison.equal("1e3 2", "1000.0 2"));
+    }
+
+    /**
+     * The tolerance applies to numbers only, token by token.
+     * @throws IOException If the script cannot be written
+     */
+    @Test
+    public void comparesOtherTokensExactly() throws IOException {
+        final Comparison comparison = this.comparison("tolerance=0.01");
+        Assert.assertFalse(comparison.equal("x 1.5", "y 1.5"));
+        Assert.assertFalse(comparison.equal("x 1.5", "x 1.5 2"));
+        Assert.assertFalse(comparison.equal("1.5", "1.5x"));
+        Assert.assertTrue(comparison.equal("x  1.5", " x 1.5"));
+    }
+
+    /**
+     * An unknown whitespace mode is reported along with the script.
+     * @throws IOException If the script cannot be written
+     */
+    @Test
+    public void reportsUnknownWhitespaceModes() throws IOException {
+        try {
+            this.comparison("whitespace=trailling");
+            Assert.fail("Expected an invalid directive");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().endsWith(
+                "declares an invalid value 'trailling' for whitespace"
+            ));
+        }
+    }
+
+    /**
+     * Creates a comparison from a marking script declaring the given
+     * directives.
+     * @param directives The directives
+     * @return The comparison
+     * @throws IOException If the script cannot be written
+     */
+    private Comparison comparison(final String directives)
+        throws IOException {
+        final File script = this.folder.newFile();
+        Files.write(
+            script.toPath(),
+            Collections.singletonList("# gradebuddy: " + directives)
+        );
+        return new Comparison(new Directives(script));
+    }
+
+}
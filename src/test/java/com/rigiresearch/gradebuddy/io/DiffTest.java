@@ -0,0 +1,171 @@
+/**
+ * Copyright 2017 University of Victoria
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package com.rigiresearch.gradebuddy.io;
+
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests {@link Diff}.
+ * @author Miguel Jimenez (miguel@uvic.ca)
+ * @date 2017-11-14
+ * @version $Id$
+ * @since 0.0.1
+ */
+public final class DiffTest {
+
+    /**
+     * Identical texts match every line.
+     */
+    @Test
+    public void matchesIdenticalTexts() {
+        final Diff diff = DiffTest.diff("a b c", "a b c");
+        Assert.assertTrue(diff.identical());
+        Assert.assertEquals(3, diff.matched());
+        Assert.assertEquals("", diff.hunks(10));
+    }
+
+    /**
+     * A changed line is reported as a removal and an addition.
+     */
+    @Test
+    public void reportsChangedLines() {
+        final Diff diff = DiffTest.diff("a b c", "a x c");
+        Assert.assertFalse(diff.identical());
+        Assert.assertEquals(2, diff.matched());
+        Assert.assertEquals("@@ -2,1 +2,1 @@\n-b\n+x\n", diff.hunks(10));
+    }
+
+    /**
+     * Missing and extra lines are reported where they occur.
+     */
+    @Test
+    public void reportsMissingAndExtraLines() {
+        final Diff diff = DiffTest.diff("a b c d", "b c d e");
+        Assert.assertEquals(3, diff.matched());
+        Assert.assertEquals(
+            "@@ -1,1 +1,0 @@\n-a\n@@ -5,0 +4,1 @@\n+e\n",
+            diff.hunks(10)
+        );
+    }
+
+    /**
+     * The hunks are cut after the given number of changed lines.
+     */
+    @Test
+    public void limitsTheHunks() {
+        final Diff diff = DiffTest.diff("a b c", "x y z");
+        Assert.assertEquals(
+            "@@ -1,3 +1,3 @@\n-a\n-b\n... 4 more line(s)\n",
+            diff.hunks(2)
+        );
+    }
+
+    /**
+     * Too many differences fall back to matching the common prefix and
+     * suffix only.
+     */
+    @Test
+    public void fallsBackToTheCommonEnds() {
+        final int count = 3000;
+        final String[] expected = new String[count + 2];
+        final String[] actual = new String[count + 2];
+        expected[0] = actual[0] = "first";
+        expected[count + 1] = actual[count + 1] = "last";
+        for (int i = 1; i <= count; i++) {
+            expected[i] = "expected " + i;
+            // Shared lines the full search would match, out of order
+            actual[i] = i % 2 == 0 ? "expected " + (count - i) : "actual " + i;
+        }
+        final Diff diff = new Diff(expected, actual, String::equals);
+        Assert.assertTrue(diff.truncated());
+        Assert.assertEquals(2, diff.matched());
+        Assert.assertFalse(diff.identical());
+    }
+
+    /**
+     * The number of matched lines is the length of the longest common
+     * subsequence.
+     */
+    @Test
+    public void matchesTheLongestCommonSubsequence() {
+        final Random random = new Random(42L);
+        for (int run = 0; run < 500; run++) {
+            final String[] expected = DiffTest.random(random);
+            final String[] actual = DiffTest.random(random);
+            final Diff diff = new Diff(expected, actual, String::equals);
+            Assert.assertFalse(diff.truncated());
+            Assert.assertEquals(
+                String.join(" ", expected) + " / " + String.join(" ", actual),
+                DiffTest.lcs(expected, actual),
+                diff.matched()
+            );
+        }
+    }
+
+    /**
+     * Compares two texts whose lines are separated by spaces.
+     * @param expected The expected lines
+     * @param actual The actual lines
+     * @return The differences
+     */
+    private static Diff diff(final String expected, final String actual) {
+        return new Diff(
+            expected.split(" "),
+            actual.split(" "),
+            String::equals
+        );
+    }
+
+    /**
+     * Generates lines from a small alphabet, so that they repeat.
+     * @param random The random generator
+     * @return Up to 30 lines
+     */
+    private static String[] random(final Random random) {
+        final String[] lines = new String[random.nextInt(31)];
+        for (int i = 0; i < lines.length; i++)
+            lines[i] = String.valueOf((char) ('a' + random.nextInt(4)));
+        return lines;
+    }
+
+    /**
+     * Computes the length of the longest common subsequence by dynamic
+     * programming.
+     * @param a The first lines
+     * @param b The second lines
+     * @return The length of the longest common subsequence
+     */
+    private static int lcs(final String[] a, final String[] b) {
+        final int[][] lengths = new int[a.length + 1][b.length + 1];
+        for (int i = 1; i <= a.length; i++) {
+            for (int j = 1; j <= b.length; j++) {
+                lengths[i][j] = a[i - 1].equals(b[j - 1]) ?
+                    lengths[i - 1][j - 1] + 1
+                    : Math.max(lengths[i - 1][j], lengths[i][j - 1]);
+            }
+        }
+        return lengths[a.length][b.length];
+    }
+
+}
@@ -0,0 +1,188 @@
+/**
+ * Copyright 2017 University of Victoria
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package com.rigiresearch.gradebuddy.io;
+
+import com.rigiresearch.gradebuddy.model.Submission;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests {@link SimilarityDetector} on generated sources: every submission
+ * shares a large starter code, three of them share most of their own code
+ * and the others are unrelated.
+ * @author Miguel Jimenez (miguel@uvic.ca)
+ * @date 2017-11-16
+ * @version $Id$
+ * @since 0.0.1
+ */
+public final class SimilarityDetectorTest {
+
+    /**
+     * Holds the submission directories.
+     */
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * The number of rows per band is the largest power of two dividing the
+     * signature that keeps the recall at the threshold above 0.9.
+     */
+    @Test
+    public void derivesTheRowsPerBand() {
+        Assert.assertEquals(2, new SimilarityDetector(".*", 0.5).rows());
+        Assert.assertEquals(8, new SimilarityDetector(".*", 0.8).rows());
+        Assert.assertEquals(32, new SimilarityDetector(".*", 0.99).rows());
+        Assert.assertEquals(1, new SimilarityDetector(".*", 0.1).rows());
+    }
+
+    /**
+     * Near duplicates are reported, most similar first, while the starter
+     * code shared by every submission does not make the others similar.
+     * @throws IOException If a source file cannot be written
+     */
+    @Test
+    public void ranksNearDuplicatesOnly() throws IOException {
+        final List<String> starter = SimilarityDetectorTest.lines(1L, 300);
+        final List<String> body = SimilarityDetectorTest.lines(2L, 100);
+        final List<String> copy = new ArrayList<>(body);
+        copy.set(50, "int renamed = 0;");
+        final List<String> edited = new ArrayList<>(body);
+        for (int i = 5; i < edited.size(); i += 10)
+            edited.set(i, "int edited" + i + " = 0;");
+        final List<Submission> submissions = Arrays.asList(
+            this.submission("original", starter, body),
+            this.submission("copy", starter, copy),
+            this.submission("edited", starter, edited),
+            this.submission("other1", starter,
+                SimilarityDetectorTest.lines(3L, 100)),
+            this.submission("other2", starter,
+                SimilarityDetectorTest.lines(4L, 100)),
+            this.submission("other3", starter,
+                SimilarityDetectorTest.lines(5L, 100))
+        );
+        final SimilarityDetector detector =
+            new SimilarityDetector(".*\\.java", 0.5);
+        final List<SimilarityDetector.Pair> pairs =
+            detector.detect(submissions);
+        Assert.assertEquals(detector.report(), 3, pairs.size());
+        Assert.assertEquals(
+            // The copy differs from the edited code in one more line
+            Arrays.asList("original/copy", "original/edited", "copy/edited"),
+            Arrays.asList(
+                SimilarityDetectorTest.names(pairs.get(0)),
+                SimilarityDetectorTest.names(pairs.get(1)),
+                SimilarityDetectorTest.names(pairs.get(2))
+            )
+        );
+        Assert.assertTrue(pairs.get(0).similarity() > 0.9);
+        Assert.assertTrue(pairs.get(2).similarity() < 0.9);
+        Assert.assertEquals(2, submissions.get(0).similar().size());
+        Assert.assertSame(
+            submissions.get(1),
+            submissions.get(0).similar().get(0).submission()
+        );
+        for (Submission other : submissions.subList(3, 6))
+            Assert.assertTrue(other.similar().isEmpty());
+    }
+
+    /**
+     * Submissions without enough tokens are not compared.
+     * @throws IOException If a source file cannot be written
+     */
+    @Test
+    public void ignoresEmptySubmissions() throws IOException {
+        final List<String> empty = new ArrayList<>();
+        final List<Submission> submissions = Arrays.asList(
+            this.submission("first", empty, empty),
+            this.submission("second", empty, empty)
+        );
+        final SimilarityDetector detector =
+            new SimilarityDetector(".*\\.java", 0.5);
+        Assert.assertTrue(detector.detect(submissions).isEmpty());
+        Assert.assertEquals(0L, detector.candidates());
+    }
+
+    /**
+     * Creates a submission whose source file contains the starter code
+     * followed by the student's code.
+     * @param student The student identifier
+     * @param starter The starter code
+     * @param code The student's code
+     * @return The submission
+     * @throws IOException If the source file cannot be written
+     */
+    private Submission submission(final String student,
+        final List<String> starter, final List<String> code)
+        throws IOException {
+        final File directory = this.folder.newFolder(student);
+        final List<String> lines = new ArrayList<>(starter);
+        lines.addAll(code);
+        Files.write(new File(directory, "Main.java").toPath(), lines);
+        // Not a source file
+        Files.write(new File(directory, "notes.txt").toPath(), code);
+        final Submission submission = new Submission(directory);
+        submission.studentId(student);
+        return submission;
+    }
+
+    /**
+     * Generates lines of code.
+     * @param seed The seed, so that the same lines are generated
+     * @param count The number of lines
+     * @return The lines
+     */
+    private static List<String> lines(final long seed, final int count) {
+        final Random random = new Random(seed);
+        final List<String> lines = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            lines.add(
+                String.format(
+                    "int v%d = v%d * %d + f%d(x);",
+                    random.nextInt(1000),
+                    random.nextInt(1000),
+                    random.nextInt(100),
+                    random.nextInt(50)
+                )
+            );
+        }
+        return lines;
+    }
+
+    /**
+     * Names the submissions of a pair.
+     * @param pair The pair
+     * @return The student identifiers, separated by a slash
+     */
+    private static String names(final SimilarityDetector.Pair pair) {
+        return pair.first().studentId() + "/" + pair.second().studentId();
+    }
+
+}